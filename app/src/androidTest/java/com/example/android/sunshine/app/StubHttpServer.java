@@ -0,0 +1,221 @@
+package com.example.android.sunshine.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server on the loopback interface that stands in for OpenWeatherMap in tests.
+ * Every request is recorded and answered by the {@link Handler}. Connections are kept alive
+ * unless {@link #setKeepAlive} turns that off.
+ */
+public class StubHttpServer {
+
+    public interface Handler {
+        public Response handle(Request request);
+    }
+
+    public static class Request {
+        public String method;
+        public String path;
+        // header names are lower case
+        public final Map<String, String> headers = new HashMap<String, String>();
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        public final int code;
+        public final String reason;
+        public final Map<String, String> headers = new LinkedHashMap<String, String>();
+        public byte[] body = new byte[0];
+
+        public Response(int code, String reason) {
+            this.code = code;
+            this.reason = reason;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response body(String body) {
+            try {
+                this.body = body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        public Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final Set<Socket> mOpenSockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile boolean mKeepAlive = true;
+    private Thread mThread;
+
+    public StubHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    // With keep-alive off every response closes its connection, like a server without it
+    public void setKeepAlive(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
+    public void start() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        mOpenSockets.add(socket);
+                        // one thread per connection, a kept-alive socket may sit idle for a while
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    serve(socket);
+                                } catch (IOException e) {
+                                    // client went away
+                                }
+                            }
+                        }, "StubHttpServer connection").start();
+                    } catch (IOException e) {
+                        // closed by shutdown()
+                    }
+                }
+            }
+        }, "StubHttpServer");
+        mThread.start();
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        if (mThread != null) {
+            mThread.join();
+        }
+        synchronized (mOpenSockets) {
+            for (Socket socket : mOpenSockets) {
+                socket.close();
+            }
+        }
+    }
+
+    // Base url to hand to the code under test, e.g. "http://127.0.0.1:4242/data/2.5/forecast/daily?"
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public List<Request> getRequests() {
+        return mRequests;
+    }
+
+    // Number of TCP connections accepted so far
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                Request request = readRequest(in);
+                if (request == null) {
+                    return;
+                }
+                mRequests.add(request);
+                boolean keepAlive = mKeepAlive && !"close".equalsIgnoreCase(request.getHeader("Connection"));
+                writeResponse(out, mHandler.handle(request), keepAlive);
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        } finally {
+            mOpenSockets.remove(socket);
+            socket.close();
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+        Request request = new Request();
+        String[] parts = requestLine.split(" ");
+        request.method = parts[0];
+        request.path = parts[1];
+
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return request;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private static void writeResponse(OutputStream out, Response response, boolean keepAlive) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(' ').append(response.reason).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        head.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(response.body);
+        out.flush();
+    }
+}
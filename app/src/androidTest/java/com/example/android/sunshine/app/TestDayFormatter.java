@@ -0,0 +1,153 @@
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestDayFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayFormatter.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 100;
+    // a 14 day forecast, one bind per row
+    private static final int ROWS = 14;
+
+    public void testLabelsMatchUncachedFormatting() throws Exception {
+        DayFormatter formatter = DayFormatter.getInstance(mContext);
+        long today = WeatherContract.getDbDay(System.currentTimeMillis());
+
+        for (long day = today; day < today + ROWS; day++) {
+            String dateText = new SimpleDateFormat("yyyyMMdd").format(WeatherContract.getDateFromDb(day));
+            assertEquals(friendlyDayStringFromText(dateText), formatter.getFriendlyDayString(day));
+            // served from the memo the second time, same answer
+            assertEquals(friendlyDayStringFromText(dateText), formatter.getFriendlyDayString(day));
+        }
+        assertEquals(mContext.getString(R.string.today), formatter.getDayName(today));
+        assertEquals(mContext.getString(R.string.tomorrow), formatter.getDayName(today + 1));
+        assertEquals(today, formatter.getToday());
+    }
+
+    // A thread that formatted before a locale change mustn't fill the memo with labels of the
+    // old locale after another thread noticed the change
+    public void testLocaleChangeReachesEveryThread() throws Exception {
+        final DayFormatter formatter = DayFormatter.getInstance(mContext);
+        final long day = WeatherContract.getDbDay(System.currentTimeMillis()) + 3;
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        Locale defaultLocale = Locale.getDefault();
+        Callable<String> dayName = new Callable<String>() {
+            @Override
+            public String call() {
+                return formatter.getDayName(day);
+            }
+        };
+        try {
+            Locale.setDefault(Locale.US);
+            assertEquals(new SimpleDateFormat("EEEE", Locale.US).format(WeatherContract.getDateFromDb(day)),
+                    worker.submit(dayName).get());
+
+            Locale.setDefault(Locale.FRENCH);
+            // noticed here first
+            formatter.getToday();
+            assertEquals(new SimpleDateFormat("EEEE", Locale.FRENCH).format(WeatherContract.getDateFromDb(day)),
+                    worker.submit(dayName).get());
+        } finally {
+            Locale.setDefault(defaultLocale);
+            worker.shutdown();
+        }
+    }
+
+    public void testTimeZoneChangeMovesToday() {
+        DayFormatter formatter = DayFormatter.getInstance(mContext);
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            // 25 hours apart, so it's never the same day in both
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+            assertEquals(WeatherContract.getDbDay(System.currentTimeMillis()), formatter.getToday());
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+            assertEquals(WeatherContract.getDbDay(System.currentTimeMillis()), formatter.getToday());
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    public void testBenchmarkBindAllocations() throws Exception {
+        DayFormatter formatter = DayFormatter.getInstance(mContext);
+        long today = WeatherContract.getDbDay(System.currentTimeMillis());
+        String[] dateTexts = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            dateTexts[i] = new SimpleDateFormat("yyyyMMdd").format(WeatherContract.getDateFromDb(today + i));
+        }
+        // warm up both paths, this also fills the memo
+        for (int i = 0; i < ROWS; i++) {
+            friendlyDayStringFromText(dateTexts[i]);
+            formatter.getFriendlyDayString(today + i);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+                for (int i = 0; i < ROWS; i++) {
+                    friendlyDayStringFromText(dateTexts[i]);
+                }
+            }
+            long textNanos = System.nanoTime() - start;
+            int textAllocs = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            start = System.nanoTime();
+            for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+                for (int i = 0; i < ROWS; i++) {
+                    formatter.getFriendlyDayString(today + i);
+                }
+            }
+            long cachedNanos = System.nanoTime() - start;
+            int cachedAllocs = Debug.getThreadAllocCount();
+
+            int binds = BENCHMARK_ROUNDS * ROWS;
+            Log.i(LOG_TAG, "text dates: " + (textNanos / binds) + "ns, " + ((float) textAllocs / binds) + " allocs per bind");
+            Log.i(LOG_TAG, "DayFormatter: " + (cachedNanos / binds) + "ns, " + ((float) cachedAllocs / binds) + " allocs per bind");
+            assertTrue(cachedAllocs < textAllocs);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // How the friendly day string was built from the yyyyMMdd text dates: a new Date, a Calendar
+    // and up to three SimpleDateFormats per call, plus string comparisons.
+    private String friendlyDayStringFromText(String dateStr) throws ParseException {
+        Date todayDate = new Date();
+        String todayStr = new SimpleDateFormat("yyyyMMdd").format(todayDate);
+        Date inputDate = new SimpleDateFormat("yyyyMMdd").parse(dateStr);
+
+        if (todayStr.equals(dateStr)) {
+            return mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today), new SimpleDateFormat("MMMM dd").format(inputDate));
+        }
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(todayDate);
+        cal.add(Calendar.DATE, 7);
+        if (dateStr.compareTo(new SimpleDateFormat("yyyyMMdd").format(cal.getTime())) < 0) {
+            cal.setTime(todayDate);
+            cal.add(Calendar.DATE, 1);
+            if (new SimpleDateFormat("yyyyMMdd").format(cal.getTime()).equals(dateStr)) {
+                return mContext.getString(R.string.tomorrow);
+            }
+            return new SimpleDateFormat("EEEE").format(inputDate);
+        }
+        return new SimpleDateFormat("EEE MMM dd").format(inputDate);
+    }
+}
@@ -2,16 +2,26 @@ package com.example.android.sunshine.app;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ResponseCacheEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 import com.example.android.sunshine.app.data.WeatherDbHelper;
+import com.example.android.sunshine.app.data.WeatherInserter;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class TestDb extends AndroidTestCase {
 
@@ -19,10 +29,15 @@ public class TestDb extends AndroidTestCase {
 
     //TEST DATA
     static public String TEST_CITY_NAME = "North Pole";
-    static public String TEST_DATE = "20140811";
+    static public long TEST_DATE = 16293L; // 2014-08-11
     static public String TEST_LOCATION_SETTING = "99705";
     //END TEST DATA
 
+    private static final int[] BENCHMARK_BATCH_SIZES = {14, 1000, 100000};
+    private static final int CONCURRENT_WRITE_ROWS = 20000;
+    // A blocked read would wait for the writer, which waits for the read: fail after this long
+    private static final long READ_TIMEOUT_SECONDS = 5;
+
     public void testCreateDb() throws Throwable {
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
@@ -86,10 +101,221 @@ public class TestDb extends AndroidTestCase {
         dbHelper.close();
     }
 
+    public void testUpgradeFromVersion1KeepsData() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        // The schema of version 1: text yyyyMMdd dates, no response cache or hourly tables
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, "
+                + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, "
+                + "UNIQUE (location_setting) ON CONFLICT IGNORE);");
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, "
+                + "date TEXT NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, "
+                + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, "
+                + "wind REAL NOT NULL, degrees REAL NOT NULL, "
+                + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                + "UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, createTestLocationValues());
+        ContentValues oldWeatherValues = createTestWeatherValues(locationRowId);
+        oldWeatherValues.put(WeatherEntry.COLUMN_DATE, "20140811");
+        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, oldWeatherValues);
+        // version 1 never enforced its foreign key: a row left behind by a deleted location
+        ContentValues orphanValues = createTestWeatherValues(locationRowId + 1);
+        orphanValues.put(WeatherEntry.COLUMN_DATE, "20140812");
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, orphanValues) != -1);
+        db.setVersion(1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+
+        // same row, same id, date converted to a day number; the orphan is dropped instead of
+        // failing the upgrade on the foreign key
+        Cursor weatherCursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(1, weatherCursor.getCount());
+        assertTrue(weatherCursor.moveToFirst());
+        assertEquals(weatherRowId, weatherCursor.getLong(weatherCursor.getColumnIndex(WeatherEntry._ID)));
+        validateCursorValues(weatherCursor, createTestWeatherValues(locationRowId));
+
+        // the tables added since version 1 exist
+        db.query(ResponseCacheEntry.TABLE_NAME, null, null, null, null, null, null).close();
+        db.query(HourlyEntry.TABLE_NAME, null, null, null, null, null, null).close();
+        dbHelper.close();
+    }
+
+    public void testInserterStoresSameRowAsInsert() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+
+        db.beginTransaction();
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            assertTrue(inserter.upsertLocation(createTestLocationValues()));
+            // same values again: nothing to write
+            assertFalse(inserter.upsertLocation(createTestLocationValues()));
+            ContentValues renamed = createTestLocationValues();
+            renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+            assertTrue(inserter.upsertLocation(renamed));
+
+            Cursor locationCursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+            assertEquals(1, locationCursor.getCount());
+            validateCursorValues(locationCursor, renamed);
+
+            long locationRowId = getLocationRowId(db);
+            assertTrue(inserter.insertWeather(createFractionalWeatherValues(locationRowId)) != -1);
+            // a row missing a NOT NULL column is rejected like insert() rejects it
+            ContentValues incomplete = createTestWeatherValues(locationRowId);
+            incomplete.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            incomplete.put(WeatherEntry.COLUMN_DATE, TEST_DATE + 1);
+            assertEquals(-1, inserter.insertWeather(incomplete));
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+
+        Cursor weatherCursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(1, weatherCursor.getCount());
+        validateCursorValues(weatherCursor, createFractionalWeatherValues(getLocationRowId(db)));
+
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        dbHelper.close();
+    }
+
+    // With write-ahead logging a reader sees the last committed data while a large write
+    // transaction is open on another thread, instead of waiting for it to end.
+    public void testReadsProceedDuringWriteTransaction() throws Exception {
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        final long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, createTestLocationValues());
+        db.insert(WeatherEntry.TABLE_NAME, null, createTestWeatherValues(locationRowId));
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    db.beginTransaction();
+                    WeatherInserter inserter = new WeatherInserter(db);
+                    try {
+                        ContentValues values = createTestWeatherValues(locationRowId);
+                        for (int i = 1; i <= CONCURRENT_WRITE_ROWS; i++) {
+                            values.put(WeatherEntry.COLUMN_DATE, TEST_DATE + i);
+                            inserter.insertWeather(values);
+                        }
+                        writing.countDown();
+                        // keep the transaction open until the read is done
+                        readDone.await(READ_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        inserter.close();
+                        db.endTransaction();
+                    }
+                    return null;
+                }
+            });
+            assertTrue(writing.await(60, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            Future<Long> reader = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME);
+                }
+            });
+            // only the committed row is visible
+            assertEquals(Long.valueOf(1), reader.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            Log.i(LOG_TAG, "Read during a " + CONCURRENT_WRITE_ROWS + " row write transaction took "
+                    + (System.nanoTime() - start) / 1000 + "us");
+            readDone.countDown();
+            writer.get();
+        } finally {
+            readDone.countDown();
+            executor.shutdown();
+        }
+
+        assertEquals(CONCURRENT_WRITE_ROWS + 1, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        dbHelper.close();
+    }
+
+    // REAL columns read back as "75.0", so the temperatures are given with a fraction
+    private static ContentValues createFractionalWeatherValues(long locationRowId) {
+        ContentValues weatherValues = createTestWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75.5);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65.5);
+        return weatherValues;
+    }
+
+    private static long getLocationRowId(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME, null);
+    }
+
+    // Rows per second for SQLiteDatabase.insert() and for the compiled statement, one
+    // transaction per batch
+    public void testBenchmarkInserts() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, createTestLocationValues());
+
+        for (int batchSize : BENCHMARK_BATCH_SIZES) {
+            ContentValues[] batch = new ContentValues[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = createTestWeatherValues(locationRowId);
+                batch[i].put(WeatherEntry.COLUMN_DATE, TEST_DATE + i);
+            }
+
+            long start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                for (ContentValues values : batch) {
+                    db.insert(WeatherEntry.TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long insertNanos = System.nanoTime() - start;
+            db.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            start = System.nanoTime();
+            db.beginTransaction();
+            WeatherInserter inserter = new WeatherInserter(db);
+            try {
+                for (ContentValues values : batch) {
+                    inserter.insertWeather(values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                inserter.close();
+                db.endTransaction();
+            }
+            long statementNanos = System.nanoTime() - start;
+            db.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            Log.i(LOG_TAG, batchSize + " rows: insert() " + (batchSize * 1000000000L / insertNanos)
+                    + " rows/s, compiled statement " + (batchSize * 1000000000L / statementNanos) + " rows/s");
+        }
+
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        dbHelper.close();
+    }
+
     public static ContentValues createTestWeatherValues(long locationRowId) {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
-        weatherValues.put(WeatherEntry.COLUMN_DATETEXT, TEST_DATE);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, TEST_DATE);
         weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
         weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
         weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
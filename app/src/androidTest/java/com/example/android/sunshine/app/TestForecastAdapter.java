@@ -0,0 +1,115 @@
+package com.example.android.sunshine.app;
+
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+import java.util.Arrays;
+
+public class TestForecastAdapter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final int WIDTH_PX = 1080;
+    private static final int HEIGHT_PX = 1920;
+    private static final int SCROLL_STEP_PX = 40;
+    private static final int BENCHMARK_FRAMES = 300;
+    private static final long FIRST_DAY = 16293L;
+
+    public void testChangedDayIsOneChange() {
+        ForecastRow[] oldRows = createRows(14, 0);
+        ForecastRow[] newRows = oldRows.clone();
+        newRows[5] = createRow(5, 30.5);
+
+        ForecastRowDiff diff = ForecastRowDiff.compute(oldRows, newRows);
+        assertEquals("change 5+1", diff.toString());
+        assertTrue(ForecastRowDiff.compute(oldRows, createRows(14, 0)).isEmpty());
+    }
+
+    public void testDayRolloverRemovesFirstAndAppendsLast() {
+        ForecastRow[] oldRows = createRows(14, 0);
+        ForecastRow[] newRows = createRows(14, 1);
+
+        assertEquals("remove 0+1, insert 13+1", ForecastRowDiff.compute(oldRows, newRows).toString());
+        assertEquals("insert 0+14", ForecastRowDiff.compute(new ForecastRow[0], oldRows).toString());
+        assertEquals("remove 0+14", ForecastRowDiff.compute(oldRows, new ForecastRow[0]).toString());
+    }
+
+    public void testBenchmarkFrames14Days() {
+        benchmarkFrames("14 days", 14);
+    }
+
+    public void testBenchmarkFrames90Days() {
+        benchmarkFrames("90 days", 90);
+    }
+
+    // Scrolls the list back and forth a frame at a time and logs how long each frame took to
+    // scroll and lay out, then how long a refresh that changes one day takes.
+    private void benchmarkFrames(String name, int days) {
+        ForecastAdapter adapter = new ForecastAdapter(getContext(), null);
+        adapter.setUseTodayLayout(true);
+        RecyclerView recyclerView = new RecyclerView(getContext());
+        recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        recyclerView.setAdapter(adapter);
+
+        ForecastRow[] rows = createRows(days, 0);
+        adapter.applyRows(rows, ForecastRowDiff.compute(new ForecastRow[0], rows));
+        layout(recyclerView);
+
+        long[] frameNanos = new long[BENCHMARK_FRAMES];
+        int direction = 1;
+        for (int i = 0; i < BENCHMARK_FRAMES; i++) {
+            if (!ViewCompat.canScrollVertically(recyclerView, direction)) {
+                direction = -direction;
+            }
+            long start = System.nanoTime();
+            recyclerView.scrollBy(0, direction * SCROLL_STEP_PX);
+            layout(recyclerView);
+            frameNanos[i] = System.nanoTime() - start;
+        }
+
+        ForecastRow[] refreshed = rows.clone();
+        refreshed[days / 2] = createRow(days / 2, 30.5);
+        long start = System.nanoTime();
+        adapter.applyRows(refreshed, ForecastRowDiff.compute(rows, refreshed));
+        layout(recyclerView);
+        long refreshNanos = System.nanoTime() - start;
+
+        Arrays.sort(frameNanos);
+        long total = 0;
+        for (long nanos : frameNanos) {
+            total += nanos;
+        }
+        Log.i(LOG_TAG, name + ": " + (total / BENCHMARK_FRAMES / 1000) + "us mean, "
+                + (frameNanos[BENCHMARK_FRAMES * 90 / 100] / 1000) + "us p90, "
+                + (frameNanos[BENCHMARK_FRAMES - 1] / 1000) + "us max per scrolled frame, "
+                + (refreshNanos / 1000) + "us for a one day refresh");
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT_PX, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH_PX, HEIGHT_PX);
+    }
+
+    // Rows for days firstDay .. firstDay + count - 1, with the weather _id following the day
+    private static ForecastRow[] createRows(int count, int firstDay) {
+        ForecastRow[] rows = new ForecastRow[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = createRow(firstDay + i, 20 + i % 7);
+        }
+        return rows;
+    }
+
+    private static ForecastRow createRow(int day, double high) {
+        int weatherId = 800 + day % 4;
+        return new ForecastRow(day + 1, FIRST_DAY + day, weatherId, "Clouds", high, 10.5,
+                80.0, 1012.5, 3.5, 270.0, FIRST_DAY,
+                Utility.getIconResourceForWeatherCondition(weatherId),
+                Utility.getArtResourceForWeatherCondition(weatherId),
+                "Day " + day, high + "\u00b0", "10.5\u00b0");
+    }
+}
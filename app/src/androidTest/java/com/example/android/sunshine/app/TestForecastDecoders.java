@@ -0,0 +1,102 @@
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
+public class TestForecastDecoders extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastDecoders.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    public void testPicksDecoderByContentType() {
+        assertTrue(ForecastDecoders.forContentType(BinaryForecastDecoder.CONTENT_TYPE)
+                instanceof BinaryForecastDecoder);
+        assertTrue(ForecastDecoders.forContentType("application/json; charset=utf-8")
+                instanceof ForecastJsonParser);
+        assertTrue(ForecastDecoders.forContentType(null) instanceof ForecastJsonParser);
+    }
+
+    public void testBinaryDecodesSameValuesAsJson() throws Exception {
+        String json = TestForecastJsonParser.createForecastJson("North Pole", 64.7488, -147.353, 16);
+
+        TestForecastJsonParser.CollectingListener fromJson = new TestForecastJsonParser.CollectingListener();
+        new ForecastJsonParser().decode(new ByteArrayInputStream(json.getBytes("UTF-8")), fromJson);
+
+        TestForecastJsonParser.CollectingListener fromBinary = new TestForecastJsonParser.CollectingListener();
+        new BinaryForecastDecoder().decode(new ByteArrayInputStream(encodeBinary(json)), fromBinary);
+
+        assertEquals(fromJson.cityName, fromBinary.cityName);
+        assertEquals(fromJson.lat, fromBinary.lat);
+        assertEquals(fromJson.lon, fromBinary.lon);
+        assertEquals(fromJson.days.size(), fromBinary.days.size());
+        for (int i = 0; i < fromJson.days.size(); i++) {
+            assertEquals(fromJson.days.get(i), fromBinary.days.get(i));
+        }
+    }
+
+    public void testBenchmarkDecoders() throws Exception {
+        String[] fixtures = {
+                TestForecastJsonParser.createForecastJson("North Pole", 64.7488, -147.353, 14),
+                TestForecastJsonParser.createForecastJson("Mountain View", 37.39, -122.08, 16)
+        };
+        for (String json : fixtures) {
+            byte[] jsonBytes = json.getBytes("UTF-8");
+            byte[] binaryBytes = encodeBinary(json);
+            double jsonNanos = measure(new ForecastJsonParser(), jsonBytes);
+            double binaryNanos = measure(new BinaryForecastDecoder(), binaryBytes);
+            Log.i(LOG_TAG, "JSON: " + jsonBytes.length + " bytes, " + (long) jsonNanos + " ns/op");
+            Log.i(LOG_TAG, "binary: " + binaryBytes.length + " bytes, " + (long) binaryNanos + " ns/op");
+        }
+    }
+
+    // Warms the decoder up, then returns its mean time per decode
+    private static double measure(ForecastDecoder decoder, byte[] body) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decoder.decode(new ByteArrayInputStream(body), new TestForecastJsonParser.CollectingListener());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            decoder.decode(new ByteArrayInputStream(body), new TestForecastJsonParser.CollectingListener());
+        }
+        return (System.nanoTime() - start) / (double) MEASURED_ITERATIONS;
+    }
+
+    // Does what the proxy does: turns an OWM daily forecast into the binary format.
+    static byte[] encodeBinary(String json) throws Exception {
+        JSONObject forecast = new JSONObject(json);
+        JSONObject city = forecast.getJSONObject("city");
+        JSONArray list = forecast.getJSONArray("list");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinaryForecastDecoder.MAGIC);
+        out.writeUTF(city.getString("name"));
+        out.writeDouble(city.getJSONObject("coord").getDouble("lat"));
+        out.writeDouble(city.getJSONObject("coord").getDouble("lon"));
+        out.writeInt(list.length());
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject day = list.getJSONObject(i);
+            JSONObject weather = day.getJSONArray("weather").getJSONObject(0);
+            out.writeLong(day.getLong("dt"));
+            out.writeDouble(day.getDouble("pressure"));
+            out.writeInt(day.getInt("humidity"));
+            out.writeDouble(day.getDouble("speed"));
+            out.writeDouble(day.getDouble("deg"));
+            out.writeDouble(day.getJSONObject("temp").getDouble("max"));
+            out.writeDouble(day.getJSONObject("temp").getDouble("min"));
+            out.writeInt(weather.getInt("id"));
+            out.writeUTF(weather.getString("main"));
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ResponseCacheEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestForecastFetcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastFetcher.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Mon, 11 Aug 2014 12:00:00 GMT";
+    private static final int BENCHMARK_ROUNDS = 10;
+
+    private StubHttpServer mServer;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(ResponseCacheEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        super.tearDown();
+    }
+
+    public void testNotModifiedSkipsParseAndInsert() throws Exception {
+        final String body = TestForecastJsonParser.createForecastJson("North Pole", 64.7488, -147.353, 14);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new StubHttpServer.Response(304, "Not Modified").header("ETag", ETAG);
+                }
+                return new StubHttpServer.Response(200, "OK")
+                        .header("ETag", ETAG)
+                        .header("Last-Modified", LAST_MODIFIED)
+                        .body(body);
+            }
+        });
+        mServer.start();
+        ForecastFetcher fetcher = new ForecastFetcher(mContext, mServer.getUrl(FORECAST_PATH));
+
+        ForecastFetcher.Forecast forecast = fetcher.fetch(TestDb.TEST_LOCATION_SETTING);
+        assertEquals(ForecastFetcher.Forecast.UPDATED, forecast.status);
+        assertEquals(14, countWeatherRows());
+        assertNull(mServer.getRequests().get(0).getHeader("If-None-Match"));
+
+        // Drop the rows, a 304 must not bring them back because nothing is parsed or inserted
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        forecast = fetcher.fetch(TestDb.TEST_LOCATION_SETTING);
+        assertEquals(ForecastFetcher.Forecast.NOT_MODIFIED, forecast.status);
+        assertEquals(0, countWeatherRows());
+
+        StubHttpServer.Request revalidation = mServer.getRequests().get(1);
+        assertEquals(ETAG, revalidation.getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, revalidation.getHeader("If-Modified-Since"));
+    }
+
+    public void testIdenticalBodySkipsInsert() throws Exception {
+        final String body = TestForecastJsonParser.createForecastJson("North Pole", 64.7488, -147.353, 14);
+        // A server without validators, only the body hash can tell the responses are the same
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(200, "OK").body(body);
+            }
+        });
+        mServer.start();
+        ForecastFetcher fetcher = new ForecastFetcher(mContext, mServer.getUrl(FORECAST_PATH));
+
+        assertEquals(ForecastFetcher.Forecast.UPDATED, fetcher.fetch(TestDb.TEST_LOCATION_SETTING).status);
+        assertEquals(14, countWeatherRows());
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        assertEquals(ForecastFetcher.Forecast.UNCHANGED, fetcher.fetch(TestDb.TEST_LOCATION_SETTING).status);
+        assertEquals(0, countWeatherRows());
+        assertNull(mServer.getRequests().get(1).getHeader("If-None-Match"));
+    }
+
+    public void testRefreshEngineStoresAllLocations() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                String location = Uri.parse(request.path).getQueryParameter("q");
+                if ("broken".equals(location)) {
+                    return new StubHttpServer.Response(500, "Internal Server Error");
+                }
+                return new StubHttpServer.Response(200, "OK")
+                        .body(TestForecastJsonParser.createForecastJson(location, 10, 20, 14));
+            }
+        });
+        mServer.start();
+        WeatherRefreshEngine engine = new WeatherRefreshEngine(
+                new ForecastFetcher(mContext, mServer.getUrl(FORECAST_PATH)), 3);
+
+        List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            locations.add("9400" + i);
+        }
+        locations.add("broken");
+
+        WeatherRefreshEngine.Report report;
+        try {
+            report = engine.refresh(locations);
+        } finally {
+            engine.shutdown();
+        }
+
+        assertEquals(11, report.results.size());
+        assertEquals(1, report.failures);
+        assertEquals(10 * 14, report.insertedRows);
+        assertEquals(10 * 14, countWeatherRows());
+        for (WeatherRefreshEngine.LocationResult result : report.results) {
+            assertEquals("broken".equals(result.locationSetting), result.error != null);
+        }
+    }
+
+    public void testGzipAndDeflateBodiesAreDecoded() throws Exception {
+        final String body = TestForecastJsonParser.createForecastJson("North Pole", 64.7488, -147.353, 14);
+        final byte[] plain = body.getBytes("UTF-8");
+        final byte[] gzipped = compress(plain, "gzip");
+        final byte[] deflated = compress(plain, "deflate");
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                String location = Uri.parse(request.path).getQueryParameter("q");
+                StubHttpServer.Response response = new StubHttpServer.Response(200, "OK")
+                        .header("Content-Type", "application/json; charset=utf-8");
+                if ("gzip".equals(location)) {
+                    return response.header("Content-Encoding", "gzip").body(gzipped);
+                } else if ("deflate".equals(location)) {
+                    return response.header("Content-Encoding", "deflate").body(deflated);
+                }
+                return response.body(plain);
+            }
+        });
+        mServer.start();
+        ForecastFetcher fetcher = new ForecastFetcher(mContext, mServer.getUrl(FORECAST_PATH));
+
+        ForecastFetcher.Forecast identity = fetcher.download("identity");
+        ForecastFetcher.Forecast gzip = fetcher.download("gzip");
+        ForecastFetcher.Forecast deflate = fetcher.download("deflate");
+
+        assertEquals("gzip, deflate", mServer.getRequests().get(0).getHeader("Accept-Encoding"));
+        assertEquals(plain.length, identity.wireBytes);
+        assertEquals(plain.length, identity.decodedBytes);
+        assertEquals(gzipped.length, gzip.wireBytes);
+        assertEquals(plain.length, gzip.decodedBytes);
+        assertEquals(deflated.length, deflate.wireBytes);
+        assertEquals(plain.length, deflate.decodedBytes);
+        assertTrue(gzip.wireBytes < gzip.decodedBytes);
+
+        // Same decoded body, same days and same hash whatever the encoding
+        assertEquals(identity.contentHash, gzip.contentHash);
+        assertEquals(identity.contentHash, deflate.contentHash);
+        assertEquals(identity.days, gzip.days);
+        assertEquals(identity.days, deflate.days);
+    }
+
+    public void testSequentialFetchesReuseConnection() throws Exception {
+        mServer = createForecastServer();
+        mServer.start();
+        ForecastFetcher fetcher = new ForecastFetcher(mContext, mServer.getUrl(FORECAST_PATH));
+
+        for (int i = 0; i < 5; i++) {
+            fetcher.download("9400" + i);
+        }
+        assertEquals(5, mServer.getRequests().size());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testBenchmarkConnectionReuse() throws Exception {
+        List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            locations.add("9400" + i);
+        }
+
+        long closeMillis = benchmarkRefreshes(locations, false);
+        long keepAliveMillis = benchmarkRefreshes(locations, true);
+        Log.i(LOG_TAG, "Connection: close " + closeMillis + "ms, keep-alive " + keepAliveMillis + "ms for "
+                + BENCHMARK_ROUNDS + " refreshes of " + locations.size() + " locations");
+    }
+
+    // Times back-to-back refreshes of the locations, returns the total in ms
+    private long benchmarkRefreshes(List<String> locations, boolean keepAlive) throws Exception {
+        mServer = createForecastServer();
+        mServer.setKeepAlive(keepAlive);
+        mServer.start();
+        WeatherRefreshEngine engine = new WeatherRefreshEngine(
+                new ForecastFetcher(mContext, mServer.getUrl(FORECAST_PATH)),
+                WeatherRefreshEngine.DEFAULT_PARALLELISM);
+        try {
+            // warm up, so class loading and the first inserts aren't counted
+            engine.refresh(locations);
+            int warmUpConnections = mServer.getConnectionCount();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+                engine.refresh(locations);
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            int connections = mServer.getConnectionCount() - warmUpConnections;
+            Log.i(LOG_TAG, (keepAlive ? "keep-alive" : "close") + ": " + connections + " connections for "
+                    + (BENCHMARK_ROUNDS * locations.size()) + " requests");
+            if (keepAlive) {
+                // the pooled sockets of the warm up refresh should carry most of the rounds
+                assertTrue(connections < BENCHMARK_ROUNDS * locations.size());
+            } else {
+                assertEquals(BENCHMARK_ROUNDS * locations.size(), connections);
+            }
+            return millis;
+        } finally {
+            engine.shutdown();
+            mServer.shutdown();
+            mServer = null;
+        }
+    }
+
+    // Answers every location with a 14 day forecast of its own
+    private static StubHttpServer createForecastServer() throws IOException {
+        return new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                String location = Uri.parse(request.path).getQueryParameter("q");
+                return new StubHttpServer.Response(200, "OK")
+                        .body(TestForecastJsonParser.createForecastJson(location, 10, 20, 14));
+            }
+        });
+    }
+
+    private static byte[] compress(byte[] data, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = "gzip".equals(encoding)
+                ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
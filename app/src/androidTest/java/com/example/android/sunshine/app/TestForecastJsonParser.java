@@ -0,0 +1,217 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 50;
+
+    // Start of the forecast in the fixtures: 2014-08-11 12:00 UTC
+    private static final long FIXTURE_START_SECONDS = 1407758400L;
+
+    public void testParsesSameValuesAsJsonObject() throws Exception {
+        String json = createForecastJson("North Pole", 64.7488, -147.353, 14);
+
+        List<ContentValues> expected = new ArrayList<ContentValues>();
+        String cityName = parseWithJsonObject(json, expected);
+
+        CollectingListener listener = new CollectingListener();
+        new ForecastJsonParser().parse(new StringReader(json), listener);
+
+        assertEquals(cityName, listener.cityName);
+        assertEquals(64.7488, listener.lat);
+        assertEquals(-147.353, listener.lon);
+        assertEquals(expected.size(), listener.days.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), listener.days.get(i));
+        }
+    }
+
+    public void testCityAfterListStillReportedFirst() throws Exception {
+        String json = "{\"list\":[" + createDayJson(0) + "],"
+                + "\"city\":{\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.08,\"lat\":37.39}}}";
+
+        CollectingListener listener = new CollectingListener();
+        new ForecastJsonParser().parse(new StringReader(json), listener);
+
+        assertEquals("Mountain View", listener.cityName);
+        assertEquals(1, listener.days.size());
+        assertTrue(listener.cityBeforeDays);
+    }
+
+    public void testIncompleteDayIsRejected() throws IOException {
+        String json = "{\"city\":{\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.08,\"lat\":37.39}},"
+                + "\"list\":[{\"dt\":" + FIXTURE_START_SECONDS + "}]}";
+        try {
+            new ForecastJsonParser().parse(new StringReader(json), new CollectingListener());
+            fail("Parsing a day without its fields should fail");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    public void testBenchmark14Days() throws Exception {
+        benchmark("14 days", new String[]{createForecastJson("North Pole", 64.7488, -147.353, 14)});
+    }
+
+    public void testBenchmark16Days() throws Exception {
+        benchmark("16 days", new String[]{createForecastJson("North Pole", 64.7488, -147.353, 16)});
+    }
+
+    public void testBenchmarkMultiCity() throws Exception {
+        benchmark("multi-city", new String[]{
+                createForecastJson("North Pole", 64.7488, -147.353, 16),
+                createForecastJson("Mountain View", 37.39, -122.08, 16),
+                createForecastJson("London", 51.51, -0.13, 16),
+                createForecastJson("Tokyo", 35.69, 139.69, 16),
+                createForecastJson("Sydney", -33.87, 151.21, 16)
+        });
+    }
+
+    // Runs both parse paths over the fixtures and logs allocations and wall time per round.
+    private void benchmark(String name, String[] fixtures) throws Exception {
+        // Warm up both paths so the numbers don't include class loading
+        for (String json : fixtures) {
+            parseWithJsonObject(json, new ArrayList<ContentValues>());
+            new ForecastJsonParser().parse(new StringReader(json), new CollectingListener());
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+                for (String json : fixtures) {
+                    parseWithJsonObject(json, new ArrayList<ContentValues>());
+                }
+            }
+            long treeNanos = System.nanoTime() - start;
+            int treeAllocs = Debug.getThreadAllocCount();
+            int treeBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+                for (String json : fixtures) {
+                    new ForecastJsonParser().parse(new StringReader(json), new CollectingListener());
+                }
+            }
+            long streamNanos = System.nanoTime() - start;
+            int streamAllocs = Debug.getThreadAllocCount();
+            int streamBytes = Debug.getThreadAllocSize();
+
+            Log.i(LOG_TAG, name + " JSONObject: " + (treeNanos / BENCHMARK_ROUNDS / 1000) + "us, "
+                    + (treeAllocs / BENCHMARK_ROUNDS) + " allocs, " + (treeBytes / BENCHMARK_ROUNDS) + " bytes per round");
+            Log.i(LOG_TAG, name + " streaming: " + (streamNanos / BENCHMARK_ROUNDS / 1000) + "us, "
+                    + (streamAllocs / BENCHMARK_ROUNDS) + " allocs, " + (streamBytes / BENCHMARK_ROUNDS) + " bytes per round");
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // The way the forecast used to be parsed: read the whole response into a String, build a
+    // JSONObject tree out of it and pull the values from there.
+    static String parseWithJsonObject(String response, List<ContentValues> days)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new StringReader(response));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+        String cityName = forecastJson.getJSONObject("city").getString("name");
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.getDbDay(new Date(dayForecast.getLong("dt") * 1000L)));
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt("humidity"));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble("pressure"));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble("speed"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble("deg"));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble("max"));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble("min"));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString("main"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt("id"));
+            days.add(weatherValues);
+        }
+        return cityName;
+    }
+
+    // Builds a response shaped like OWM's forecast/daily answer, with numDays days in it.
+    static String createForecastJson(String cityName, double lat, double lon, int numDays) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":").append(lon).append(",\"lat\":").append(lat)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0114,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(createDayJson(i));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static String createDayJson(int day) {
+        return "{\"dt\":" + (FIXTURE_START_SECONDS + day * 86400L)
+                + ",\"temp\":{\"day\":20.5,\"min\":" + (10 + day % 5) + ".25,\"max\":" + (20 + day % 7)
+                + ".75,\"night\":11.5,\"eve\":18.25,\"morn\":12.0},"
+                + "\"pressure\":" + (1010 + day) + ".5,\"humidity\":" + (60 + day) + ","
+                + "\"weather\":[{\"id\":" + (800 + day % 4) + ",\"main\":\"Clouds\","
+                + "\"description\":\"few clouds\",\"icon\":\"02d\"}],"
+                + "\"speed\":" + (1 + day % 3) + ".5,\"deg\":" + (day * 25 % 360) + ",\"clouds\":20}";
+    }
+
+    static class CollectingListener implements ForecastDecoder.Listener {
+        String cityName;
+        double lat;
+        double lon;
+        boolean cityBeforeDays;
+        final List<ContentValues> days = new ArrayList<ContentValues>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+            cityBeforeDays = days.isEmpty();
+        }
+
+        @Override
+        public void onDay(ContentValues weatherValues) {
+            days.add(weatherValues);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import java.util.Locale;
+
+public class TestForecastRowCache extends AndroidTestCase {
+
+    // Same order as ForecastFragment's FORECAST_COLUMNS
+    private static final String[] COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "humidity", "pressure", "wind", "degrees"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastRowCache.clear();
+    }
+
+    public void testRowsArePreformatted() {
+        long today = DayFormatter.getInstance(getContext()).getToday();
+        ForecastRow[] rows = ForecastRowCache.toRows(getContext(), createCursor(today, 21.5));
+
+        assertEquals(2, rows.length);
+        boolean isMetric = Utility.isMetric(getContext());
+        assertEquals(Utility.formatTemperature(getContext(), 21.5, isMetric), rows[0].highLabel);
+        assertEquals(Utility.formatTemperature(getContext(), 11.25, isMetric), rows[0].lowLabel);
+        assertEquals(Utility.getFriendlyDayString(getContext(), today), rows[0].dateLabel);
+        assertEquals(Utility.getIconResourceForWeatherCondition(800), rows[0].iconResId);
+        assertEquals(Utility.getArtResourceForWeatherCondition(800), rows[0].artResId);
+        assertEquals(today + 1, rows[1].date);
+        // the detail values come along
+        assertEquals(90.0, rows[1].humidity);
+        assertEquals(1004.0, rows[1].pressure);
+        assertEquals(8.0, rows[1].windSpeed);
+        assertEquals(180.0, rows[1].degrees);
+    }
+
+    public void testUnchangedRowsAreReused() {
+        long today = DayFormatter.getInstance(getContext()).getToday();
+        ForecastRow[] first = ForecastRowCache.toRows(getContext(), createCursor(today, 21.5));
+        ForecastRow[] second = ForecastRowCache.toRows(getContext(), createCursor(today, 23.0));
+
+        // only today's high changed
+        assertNotSame(first[0], second[0]);
+        assertSame(first[1], second[1]);
+        assertEquals(23.0, second[0].high);
+    }
+
+    public void testLocaleChangeReformatsRows() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            long today = DayFormatter.getInstance(getContext()).getToday();
+            ForecastRow[] english = ForecastRowCache.toRows(getContext(), createCursor(today, 21.5));
+            Locale.setDefault(Locale.FRENCH);
+            ForecastRow[] french = ForecastRowCache.toRows(getContext(), createCursor(today, 21.5));
+
+            // same values, but made again for the new language
+            assertNotSame(english[1], french[1]);
+            assertEquals(Utility.getFriendlyDayString(getContext(), today + 1), french[1].dateLabel);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private MatrixCursor createCursor(long today, double todayHigh) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{1L, today, "Clear", todayHigh, 11.25, "94043", 800, 60.0, 1012.5, 3.5, 270.0});
+        cursor.addRow(new Object[]{2L, today + 1, "Rain", 18.0, 9.5, "94043", 500, 90.0, 1004.0, 8.0, 180.0});
+        return cursor;
+    }
+}
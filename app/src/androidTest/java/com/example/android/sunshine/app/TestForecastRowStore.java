@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+public class TestForecastRowStore extends AndroidTestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastRowStore.publish(null, null);
+        super.tearDown();
+    }
+
+    public void testDaysAreFoundForTheirLocationOnly() {
+        long today = DayFormatter.getInstance(getContext()).getToday();
+        ForecastRow[] rows = createRows(today);
+        ForecastRowStore.publish("94043", rows);
+
+        assertSame(rows[1], ForecastRowStore.get("94043", today + 1));
+        assertNull(ForecastRowStore.get("94043", today + 2));
+        assertNull(ForecastRowStore.get("10001", today));
+
+        ForecastRowStore.publish("10001", rows);
+        assertNull(ForecastRowStore.get("94043", today));
+    }
+
+    public void testListenersAreToldOfNewRows() {
+        final int[] calls = new int[1];
+        ForecastRowStore.Listener listener = new ForecastRowStore.Listener() {
+            @Override
+            public void onRowsChanged() {
+                calls[0]++;
+            }
+        };
+        ForecastRowStore.addListener(listener);
+        try {
+            ForecastRowStore.publish("94043", createRows(0));
+            assertEquals(1, calls[0]);
+        } finally {
+            ForecastRowStore.removeListener(listener);
+        }
+        ForecastRowStore.publish("94043", createRows(0));
+        assertEquals(1, calls[0]);
+    }
+
+    private ForecastRow[] createRows(long today) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+                "humidity", "pressure", "wind", "degrees"});
+        cursor.addRow(new Object[]{1L, today, "Clear", 21.5, 11.25, "94043", 800, 60.0, 1012.5, 3.5, 270.0});
+        cursor.addRow(new Object[]{2L, today + 1, "Rain", 18.0, 9.5, "94043", 500, 90.0, 1004.0, 8.0, 180.0});
+        return ForecastRowCache.toRows(getContext(), cursor);
+    }
+}
@@ -1,24 +1,42 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 public class TestProvider extends AndroidTestCase {
 
     public static final String LOG_TAG = TestProvider.class.getSimpleName();
 
+    private static final int BENCHMARK_LOCATIONS = 1000;
+    private static final int BENCHMARK_DAYS = 365;
+    private static final int BENCHMARK_QUERIES = 200;
+    private static final int HISTORY_DAYS = 50000;
+
     public void setUp() // it will run just before every test method
     {
         deleteAllRecords();
@@ -34,6 +52,12 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        //>>>>Delete Hourly
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         //>>>>Delete Location
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
@@ -170,8 +194,8 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/weather
         assertEquals(WeatherEntry.CONTENT_TYPE, type);
 
-        String testDate = "20140612";
-        // content://com.example.android.sunshine.app/weather/94074/20140612
+        long testDate = 16233L; // 2014-06-12
+        // content://com.example.android.sunshine.app/weather/94074/16233
         type = mContext.getContentResolver().getType(
                 WeatherEntry.buildWeatherLocationWithDate(testLocation, testDate));
         // vnd.android.cursor.item/com.example.android.sunshine.app/weather
@@ -222,6 +246,728 @@ public class TestProvider extends AndroidTestCase {
         validateCursor(cursor, updatedValues);
     }
 
+    // The foreign keys are enforced, a location goes together with its forecasts
+    public void testDeleteLocationWithForecasts() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createWeatherValues(locationRowId));
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                new ContentValues[]{createHourlyValues(locationRowId, 1407751200L, 0)});
+        Cursor cached = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING), null, null, null, null);
+        assertEquals(1, cached.getCount());
+        cached.close();
+
+        assertEquals(1, mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}));
+        assertEquals(0, countWeatherRows());
+        Cursor hourly = mContext.getContentResolver().query(HourlyEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(0, hourly.getCount());
+        hourly.close();
+        // not served from the query cache either
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testUpsertWeather() {
+        Uri locationUri = mContext.getContentResolver().
+                insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] values = new ContentValues[]{createWeatherValues(locationRowId)};
+        Bundle counts = upsert(values);
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_INSERTED));
+        long weatherRowId = getWeatherRowId();
+
+        // Same values again: nothing written
+        counts = upsert(values);
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_INSERTED));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_UPDATED));
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_UNCHANGED));
+
+        // A changed column is updated in place, keeping the row id
+        ContentValues changed = createWeatherValues(locationRowId);
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 80.5);
+        counts = upsert(new ContentValues[]{changed});
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_UPDATED));
+        assertEquals(weatherRowId, getWeatherRowId());
+
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        TestDb.validateCursorValues(weatherCursor, changed);
+
+        // bulkInsert on the upsert uri returns only the rows that changed
+        assertEquals(0, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherUpsertUri(), new ContentValues[]{changed}));
+
+        // insert on it upserts one row and says what it did on the row's uri
+        Uri rowUri = mContext.getContentResolver().insert(WeatherEntry.buildWeatherUpsertUri(), changed);
+        assertEquals(weatherRowId, ContentUris.parseId(rowUri));
+        assertEquals(WeatherContract.EXTRA_UNCHANGED, WeatherEntry.getUpsertResultFromUri(rowUri));
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 85.5);
+        rowUri = mContext.getContentResolver().insert(WeatherEntry.buildWeatherUpsertUri(), changed);
+        assertEquals(WeatherContract.EXTRA_UPDATED, WeatherEntry.getUpsertResultFromUri(rowUri));
+        ContentValues nextDay = createWeatherValues(locationRowId);
+        nextDay.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+        rowUri = mContext.getContentResolver().insert(WeatherEntry.buildWeatherUpsertUri(), nextDay);
+        assertEquals(WeatherContract.EXTRA_INSERTED, WeatherEntry.getUpsertResultFromUri(rowUri));
+    }
+
+    private Bundle upsert(ContentValues[] values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_VALUES, values);
+        return mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherContract.METHOD_UPSERT_WEATHER, null, extras);
+    }
+
+    public void testCompactKeepsHistoryAndCap() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        long today = WeatherContract.getDbDay(System.currentTimeMillis());
+        // 20 days of history and 20 days of forecast
+        ContentValues[] days = new ContentValues[40];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, today - 20 + i);
+        }
+        assertEquals(days.length, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+
+        // 7 days of history are kept, the cap of 30 days doesn't bite yet
+        Bundle result = compact(7, 30);
+        assertEquals(13, result.getInt(WeatherContract.EXTRA_DELETED_ROWS));
+        assertTrue(result.getLong(WeatherContract.EXTRA_RECLAIMED_BYTES) >= 0);
+        assertEquals(27, countWeatherRows());
+        assertEquals(today - 7, getFirstWeatherDate());
+
+        // the cap keeps the newest days
+        result = compact(7, 10);
+        assertEquals(17, result.getInt(WeatherContract.EXTRA_DELETED_ROWS));
+        assertEquals(10, countWeatherRows());
+        assertEquals(today + 10, getFirstWeatherDate());
+
+        assertEquals(0, compact(7, 10).getInt(WeatherContract.EXTRA_DELETED_ROWS));
+    }
+
+    private Bundle compact(int historyDays, int maxDaysPerLocation) {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_HISTORY_DAYS, historyDays);
+        extras.putInt(WeatherContract.EXTRA_MAX_DAYS_PER_LOCATION, maxDaysPerLocation);
+        return mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherContract.METHOD_COMPACT, null, extras);
+    }
+
+    public void testGetOrCreateLocation() {
+        long locationRowId = getOrCreateLocation();
+        assertTrue(locationRowId != -1);
+        // the second call is answered from the cache and must not insert again
+        assertEquals(locationRowId, getOrCreateLocation());
+        assertEquals(1, countRows(LocationEntry.CONTENT_URI, null));
+
+        // deleting the location through the provider drops the cached id with it
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        long recreatedRowId = getOrCreateLocation();
+        assertTrue(recreatedRowId != locationRowId);
+        assertEquals(1, countRows(LocationEntry.CONTENT_URI, null));
+    }
+
+    private long getOrCreateLocation() {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_VALUES, createNorthPoleLocationValues());
+        return mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_OR_CREATE_LOCATION, null, extras)
+                .getLong(WeatherContract.EXTRA_LOCATION_ID);
+    }
+
+    public void testNotificationsOnlyReachChangedLocation() throws InterruptedException {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues otherLocation = createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "10001");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+
+        CountingObserver day = new CountingObserver();
+        CountingObserver list = new CountingObserver();
+        CountingObserver other = new CountingObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.buildWeatherLocationWithDate(
+                TestDb.TEST_LOCATION_SETTING, TestDb.TEST_DATE), true, day);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING), true, list);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("10001"), true, other);
+        try {
+            // a two week refresh of one city is a single notification on its location
+            ContentValues[] days = new ContentValues[14];
+            for (int i = 0; i < days.length; i++) {
+                days[i] = createWeatherValues(locationRowId);
+                days[i].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + i);
+            }
+            assertEquals(days.length, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+            list.await(1);
+            day.await(1);
+
+            // one changed day reaches its detail and the list, but not another day
+            ContentValues changed = createWeatherValues(locationRowId);
+            changed.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+            changed.put(WeatherEntry.COLUMN_MAX_TEMP, 90.5);
+            assertEquals(1, upsert(new ContentValues[]{changed}).getInt(WeatherContract.EXTRA_UPDATED));
+            list.await(2);
+
+            // notifications are delivered in order, give stray ones the time to arrive
+            Thread.sleep(200);
+            assertEquals(2, list.getCount());
+            assertEquals(1, day.getCount());
+            assertEquals(0, other.getCount());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(day);
+            mContext.getContentResolver().unregisterContentObserver(list);
+            mContext.getContentResolver().unregisterContentObserver(other);
+        }
+    }
+
+    public void testApplyBatchWritesLocationAndDaysAtOnce() throws Exception {
+        CountingObserver list = new CountingObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING), true, list);
+        try {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.buildLocationGetOrCreateUri())
+                    .withValues(createNorthPoleLocationValues()).build());
+            for (int i = 0; i < 14; i++) {
+                ContentValues day = createWeatherValues(0);
+                day.remove(WeatherEntry.COLUMN_LOC_KEY);
+                day.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + i);
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(day).withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0).build());
+            }
+            ContentProviderResult[] results = mContext.getContentResolver()
+                    .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            long locationRowId = ContentUris.parseId(results[0].uri);
+            assertEquals(14, countWeatherRows());
+
+            // the same batch again finds the stored location instead of failing on it
+            results = mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            assertEquals(locationRowId, ContentUris.parseId(results[0].uri));
+            assertEquals(14, countWeatherRows());
+
+            // one notification per batch, not one per row
+            list.await(2);
+            Thread.sleep(200);
+            assertEquals(2, list.getCount());
+
+            // a failing operation rolls back the ones before it
+            operations.clear();
+            ContentValues newDay = createWeatherValues(locationRowId);
+            newDay.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 14);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI).withValues(newDay).build());
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(createWeatherValues(locationRowId + 1)).build());
+            try {
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+                fail("A weather row of a location that doesn't exist should fail the batch");
+            } catch (SQLException e) {
+                // expected
+            }
+            assertEquals(14, countWeatherRows());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(list);
+        }
+    }
+
+    // The upserts of a batch share one upserter: stored days are found and diffed like in a bulk
+    // upsert, and every result uri carries the row's _ID and what was done to it
+    public void testApplyBatchUpsertsDays() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildLocationGetOrCreateUri())
+                .withValues(createNorthPoleLocationValues()).build());
+        for (int i = 0; i < 14; i++) {
+            ContentValues day = createWeatherValues(0);
+            day.remove(WeatherEntry.COLUMN_LOC_KEY);
+            day.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + i);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(day).withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0).build());
+        }
+        ContentProviderResult[] inserted = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        for (int i = 1; i < inserted.length; i++) {
+            assertEquals(WeatherContract.EXTRA_INSERTED, WeatherEntry.getUpsertResultFromUri(inserted[i].uri));
+        }
+
+        // the same days again with one of them changed
+        ContentValues changed = createWeatherValues(0);
+        changed.remove(WeatherEntry.COLUMN_LOC_KEY);
+        changed.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 5);
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 90.5);
+        operations.set(6, ContentProviderOperation.newInsert(WeatherEntry.buildWeatherUpsertUri())
+                .withValues(changed).withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0).build());
+        ContentProviderResult[] upserted = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        for (int i = 1; i < upserted.length; i++) {
+            assertEquals(ContentUris.parseId(inserted[i].uri), ContentUris.parseId(upserted[i].uri));
+            assertEquals(i == 6 ? WeatherContract.EXTRA_UPDATED : WeatherContract.EXTRA_UNCHANGED,
+                    WeatherEntry.getUpsertResultFromUri(upserted[i].uri));
+        }
+        assertEquals(14, countWeatherRows());
+    }
+
+    // Counts change notifications, which arrive on a binder thread
+    static class CountingObserver extends ContentObserver {
+        private int mCount;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public synchronized void onChange(boolean selfChange) {
+            mCount++;
+            notifyAll();
+        }
+
+        synchronized int getCount() {
+            return mCount;
+        }
+
+        // Waits up to 5 seconds for at least count notifications
+        synchronized void await(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (mCount < count && System.currentTimeMillis() < end) {
+                wait(end - System.currentTimeMillis());
+            }
+            assertTrue("Expected " + count + " notifications, got " + mCount, mCount >= count);
+        }
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getFirstWeatherDate() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getWeatherRowId() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, new String[]{WeatherEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
+    public void testHourlyRangeQuery() {
+        Uri locationUri = mContext.getContentResolver().
+                insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        // 5 days x 8 slots, like OWM's 3-hourly forecast
+        long start = 1407758400L;
+        ContentValues[] slots = new ContentValues[5 * 8];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = createHourlyValues(locationRowId, start + i * 3 * 3600L, i);
+        }
+        assertEquals(slots.length, mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, slots));
+
+        // second day, [start, end)
+        long dayStart = start + 24 * 3600L;
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestDb.TEST_LOCATION_SETTING, dayStart, dayStart + 24 * 3600L),
+                HourlyEntry.CHART_COLUMNS, null, null, null);
+        assertEquals(8, cursor.getCount());
+        long previous = 0;
+        while (cursor.moveToNext()) {
+            long time = cursor.getLong(0);
+            assertTrue(time >= dayStart && time < dayStart + 24 * 3600L);
+            assertTrue(time > previous);
+            previous = time;
+        }
+        cursor.close();
+
+        assertEquals(HourlyEntry.CONTENT_TYPE, mContext.getContentResolver().getType(
+                HourlyEntry.buildHourlyLocationWithRange(TestDb.TEST_LOCATION_SETTING, 0, 1)));
+    }
+
+    public void testHourlyRangeUsesCoveringIndex() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + HourlyEntry.COLUMN_TIME + ", "
+                + HourlyEntry.COLUMN_TEMP + ", " + HourlyEntry.COLUMN_WEATHER_ID
+                + " FROM " + HourlyEntry.TABLE_NAME
+                + " WHERE " + HourlyEntry.COLUMN_LOC_KEY + " = (SELECT " + LocationEntry._ID
+                + " FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?)"
+                + " AND " + HourlyEntry.COLUMN_TIME + " >= ? AND " + HourlyEntry.COLUMN_TIME + " < ?"
+                + " ORDER BY " + HourlyEntry.COLUMN_TIME, new String[]{TestDb.TEST_LOCATION_SETTING, "0", "1"});
+        StringBuilder details = new StringBuilder();
+        while (plan.moveToNext()) {
+            details.append(plan.getString(plan.getColumnIndex("detail"))).append('\n');
+        }
+        plan.close();
+        db.close();
+        Log.d(LOG_TAG, details.toString());
+
+        assertTrue(details.toString(), details.indexOf("COVERING INDEX " + WeatherDbHelper.HOURLY_CHART_INDEX) != -1);
+        // the index scan already returns the slots in time order
+        assertEquals(details.toString(), -1, details.indexOf("TEMP B-TREE"));
+    }
+
+    // Every query the provider builds itself must be a search of an index, never a full scan
+    public void testProviderQueriesDoNotScan() {
+        String dateOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        String[] listColumns = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherEntry.COLUMN_WEATHER_ID
+        };
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        try {
+            assertNoScan(db, WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING), null, dateOrder);
+            String listPlan = assertNoScan(db, WeatherEntry.buildWeatherLocationWithStartDate(
+                    TestDb.TEST_LOCATION_SETTING, TestDb.TEST_DATE), listColumns, dateOrder);
+            // the forecast list is served from the index alone
+            assertTrue(listPlan, listPlan.indexOf("COVERING INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX) != -1);
+            assertNoScan(db, WeatherEntry.buildWeatherLocationWithDate(
+                    TestDb.TEST_LOCATION_SETTING, TestDb.TEST_DATE), null, null);
+            assertNoScan(db, HourlyEntry.buildHourlyLocationWithRange(TestDb.TEST_LOCATION_SETTING, 0, 1), null, null);
+            String pagePlan = assertNoScan(db, WeatherEntry.buildWeatherLocationPage(
+                    TestDb.TEST_LOCATION_SETTING, TestDb.TEST_DATE, 100), listColumns, null);
+            assertTrue(pagePlan, pagePlan.indexOf("COVERING INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX) != -1);
+        } finally {
+            db.close();
+        }
+    }
+
+    // Returns the plan so the caller can check more of it
+    private static String assertNoScan(SQLiteDatabase db, Uri uri, String[] projection, String sortOrder) {
+        String sql = WeatherProvider.getQuerySql(uri, projection, sortOrder);
+        assertNotNull(uri.toString(), sql);
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        StringBuilder details = new StringBuilder();
+        try {
+            while (plan.moveToNext()) {
+                String detail = plan.getString(plan.getColumnIndex("detail"));
+                details.append(detail).append('\n');
+                assertFalse(uri + ": " + detail, detail.startsWith("SCAN"));
+            }
+        } finally {
+            plan.close();
+        }
+        Log.d(LOG_TAG, uri + "\n" + details);
+        // rows already come out of the index in date order
+        assertEquals(details.toString(), -1, details.indexOf("TEMP B-TREE"));
+        return details.toString();
+    }
+
+    // A year of history for a thousand locations, then the three weather queries of the provider
+    // for random locations: all days, the last week from a start date, and one day.
+    public void testBenchmarkQueriesOnYearOfHistory() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME + " ("
+                    + LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME + ", "
+                    + LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?)");
+            SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME + " ("
+                    + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, 'Clouds', 802, 10.5, 20.5, 80, 1012.5, 3.5, 270)");
+            for (int location = 0; location < BENCHMARK_LOCATIONS; location++) {
+                insertLocation.bindString(1, "bench" + location);
+                insertLocation.bindString(2, "City " + location);
+                insertLocation.bindDouble(3, location % 180 - 90);
+                insertLocation.bindDouble(4, location % 360 - 180);
+                long locationRowId = insertLocation.executeInsert();
+                for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                    insertWeather.bindLong(1, locationRowId);
+                    insertWeather.bindLong(2, TestDb.TEST_DATE + day);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+        Log.i(LOG_TAG, "Stored " + BENCHMARK_LOCATIONS * BENCHMARK_DAYS + " days in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+
+        Random random = new Random(BENCHMARK_LOCATIONS);
+        String dateOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        long lastWeek = TestDb.TEST_DATE + BENCHMARK_DAYS - 7;
+        long allNanos = 0;
+        long startDateNanos = 0;
+        long exactDateNanos = 0;
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            String locationSetting = "bench" + random.nextInt(BENCHMARK_LOCATIONS);
+
+            start = System.nanoTime();
+            assertEquals(BENCHMARK_DAYS, countRows(WeatherEntry.buildWeatherLocation(locationSetting), dateOrder));
+            allNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(7, countRows(WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, lastWeek), dateOrder));
+            startDateNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(1, countRows(WeatherEntry.buildWeatherLocationWithDate(locationSetting, lastWeek), null));
+            exactDateNanos += System.nanoTime() - start;
+        }
+        Log.i(LOG_TAG, "Per query: all days " + allNanos / BENCHMARK_QUERIES / 1000 + "us, from a start date "
+                + startDateNanos / BENCHMARK_QUERIES / 1000 + "us, one day "
+                + exactDateNanos / BENCHMARK_QUERIES / 1000 + "us");
+
+        deleteAllRecords();
+    }
+
+    public void testRepeatedQueriesAreServedFromCacheUntilWrite() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[3];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        Uri listUri = WeatherEntry.buildWeatherLocationWithStartDate(TestDb.TEST_LOCATION_SETTING, TestDb.TEST_DATE);
+        String[] columns = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_SHORT_DESC};
+        String dateOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        Bundle before = getCacheStats();
+
+        assertEquals(75.0, getMaxTemp(listUri, columns, dateOrder, 1));
+        // the second time from the cache, with the same values
+        assertEquals(75.0, getMaxTemp(listUri, columns, dateOrder, 1));
+        Bundle after = getCacheStats();
+        assertEquals(1, after.getInt(WeatherContract.EXTRA_CACHE_HITS) - before.getInt(WeatherContract.EXTRA_CACHE_HITS));
+        assertEquals(1, after.getInt(WeatherContract.EXTRA_CACHE_MISSES) - before.getInt(WeatherContract.EXTRA_CACHE_MISSES));
+
+        // a write drops the cached result, the next query sees it
+        ContentValues changed = createWeatherValues(locationRowId);
+        changed.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 90.5);
+        upsert(new ContentValues[]{changed});
+        assertEquals(90.5, getMaxTemp(listUri, columns, dateOrder, 1));
+        assertEquals(after.getInt(WeatherContract.EXTRA_CACHE_MISSES) + 1,
+                getCacheStats().getInt(WeatherContract.EXTRA_CACHE_MISSES));
+    }
+
+    // A query inside a batch sees the batch's uncommitted rows, they mustn't outlive a rollback
+    // in the cache
+    public void testRolledBackBatchIsNotServedFromCache() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[3];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        Uri listUri = WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING);
+        ContentValues newDay = createWeatherValues(locationRowId);
+        newDay.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + days.length);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI).withValues(newDay).build());
+        operations.add(ContentProviderOperation.newAssertQuery(listUri).withExpectedCount(days.length + 1).build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(createWeatherValues(locationRowId + 1)).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("A weather row of a location that doesn't exist should fail the batch");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        // the same query as the assert, answered with the committed rows only
+        Cursor cursor = mContext.getContentResolver().query(listUri, null, null, null, null);
+        try {
+            assertEquals(days.length, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle getCacheStats() {
+        return mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherContract.METHOD_QUERY_CACHE_STATS, null, null);
+    }
+
+    private double getMaxTemp(Uri uri, String[] columns, String sortOrder, int position) {
+        Cursor cursor = mContext.getContentResolver().query(uri, columns, null, null, sortOrder);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertTrue(cursor.moveToPosition(position));
+            assertEquals(TestDb.TEST_DATE + position, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            return cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testUnknownWeatherColumnIsRejected() {
+        try {
+            mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING),
+                    new String[]{WeatherEntry.COLUMN_DATE, "sqlite_version()"}, null, null, null);
+            fail("A column that isn't in the weather or location table should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // A negative LIMIT means no limit to SQLite, it must not get around the page cap
+    public void testInvalidPageIsRejected() {
+        Uri[] pages = {
+                WeatherEntry.buildWeatherLocationWithOffset(TestDb.TEST_LOCATION_SETTING, 0, -1),
+                WeatherEntry.buildWeatherLocationWithOffset(TestDb.TEST_LOCATION_SETTING, 0, 0),
+                WeatherEntry.buildWeatherLocationWithOffset(TestDb.TEST_LOCATION_SETTING, -1, 10)
+        };
+        for (Uri page : pages) {
+            try {
+                mContext.getContentResolver().query(page, null, null, null, null);
+                fail("The page " + page + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    // 50,000 days of history for one location, read whole the way the list used to and in pages
+    // of MAX_PAGE_ROWS by offset and by keyset.
+    public void testBenchmarkPagingOnLongHistory() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, createNorthPoleLocationValues());
+            SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME + " ("
+                    + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, 'Clouds', 802, 10.5, 20.5, 80, 1012.5, 3.5, 270)");
+            for (int day = 0; day < HISTORY_DAYS; day++) {
+                insertWeather.bindLong(1, locationRowId);
+                insertWeather.bindLong(2, TestDb.TEST_DATE + day);
+                insertWeather.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+
+        String[] listColumns = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_WEATHER_ID
+        };
+        int page = WeatherEntry.MAX_PAGE_ROWS;
+
+        long start = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION_SETTING), null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(HISTORY_DAYS, readDates(cursor, TestDb.TEST_DATE));
+        long wholeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int offsetRows = 0;
+        while (true) {
+            cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocationWithOffset(
+                    TestDb.TEST_LOCATION_SETTING, offsetRows, page), listColumns, null, null, null);
+            int rows = readDates(cursor, TestDb.TEST_DATE + offsetRows);
+            offsetRows += rows;
+            if (rows < page) {
+                break;
+            }
+        }
+        long offsetNanos = System.nanoTime() - start;
+        assertEquals(HISTORY_DAYS, offsetRows);
+
+        start = System.nanoTime();
+        int keysetRows = 0;
+        long lastDate = TestDb.TEST_DATE - 1;
+        while (true) {
+            cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocationPage(
+                    TestDb.TEST_LOCATION_SETTING, lastDate, page), listColumns, null, null, null);
+            int rows = readDates(cursor, lastDate + 1);
+            keysetRows += rows;
+            lastDate += rows;
+            if (rows < page) {
+                break;
+            }
+        }
+        long keysetNanos = System.nanoTime() - start;
+        assertEquals(HISTORY_DAYS, keysetRows);
+
+        Log.i(LOG_TAG, HISTORY_DAYS + " days: whole cursor " + wholeNanos / 1000000 + "ms, pages by offset "
+                + offsetNanos / 1000000 + "ms, pages by keyset " + keysetNanos / 1000000 + "ms");
+
+        deleteAllRecords();
+    }
+
+    // Reads a cursor to the end, checking the days follow each other from firstDate, and closes it
+    private static int readDates(Cursor cursor, long firstDate) {
+        try {
+            int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                assertEquals(firstDate + rows, cursor.getLong(dateIndex));
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countRows(Uri uri, String sortOrder) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, sortOrder);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public static ContentValues createHourlyValues(long locationRowId, long time, int slot) {
+        ContentValues hourlyValues = new ContentValues();
+        hourlyValues.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        hourlyValues.put(HourlyEntry.COLUMN_TIME, time);
+        hourlyValues.put(HourlyEntry.COLUMN_TEMP, 10.5 + slot % 8);
+        hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, 800 + slot % 4);
+        hourlyValues.put(HourlyEntry.COLUMN_SHORT_DESC, "Clouds");
+        hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, 80.0);
+        hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, 1012.5);
+        hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 3.5);
+        hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 270.0);
+        return hourlyValues;
+    }
+
     // Make sure we can still delete after adding/updating stuff
     public void testDeleteRecordsAtEnd() {
         deleteAllRecords();
@@ -230,7 +976,7 @@ public class TestProvider extends AndroidTestCase {
     public static ContentValues createWeatherValues(long locationRowId) {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
-        weatherValues.put(WeatherEntry.COLUMN_DATETEXT, TestDb.TEST_DATE);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE);
         weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
         weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
         weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
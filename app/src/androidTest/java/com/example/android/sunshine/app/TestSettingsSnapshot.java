@@ -0,0 +1,51 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSavedLocation = getPrefs().getString(getContext().getString(R.string.pref_location_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = getPrefs().edit();
+        String key = getContext().getString(R.string.pref_location_key);
+        if (mSavedLocation == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, mSavedLocation);
+        }
+        editor.commit();
+        SettingsSnapshot.invalidate();
+        super.tearDown();
+    }
+
+    public void testSnapshotKeptUntilInvalidated() {
+        String key = getContext().getString(R.string.pref_location_key);
+        getPrefs().edit().putString(key, "94043").commit();
+        SettingsSnapshot.invalidate();
+
+        SettingsSnapshot snapshot = SettingsSnapshot.get(getContext());
+        assertEquals("94043", snapshot.getLocationSetting());
+
+        // Nothing invalidates it here, so the snapshot is reused as is
+        getPrefs().edit().putString(key, "99705").commit();
+        assertSame(snapshot, SettingsSnapshot.get(getContext()));
+        assertEquals("94043", Utility.getPreferredLocation(getContext()));
+
+        SettingsSnapshot.invalidate();
+        assertEquals("99705", Utility.getPreferredLocation(getContext()));
+    }
+
+    private SharedPreferences getPrefs() {
+        return PreferenceManager.getDefaultSharedPreferences(getContext());
+    }
+}
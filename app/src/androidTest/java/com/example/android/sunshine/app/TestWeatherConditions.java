@@ -0,0 +1,149 @@
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 2000;
+    // Past both ends of the OWM id space, to cover the ids without a resource too
+    private static final int FIRST_TESTED_ID = 0;
+    private static final int LAST_TESTED_ID = 1000;
+
+    public void testIconsMatchOldMapping() {
+        for (int id = FIRST_TESTED_ID; id <= LAST_TESTED_ID; id++) {
+            assertEquals("icon of " + id, legacyIcon(id), WeatherConditions.getIcon(id));
+        }
+    }
+
+    public void testArtMatchesOldMappingExceptSnow() {
+        for (int id = FIRST_TESTED_ID; id <= LAST_TESTED_ID; id++) {
+            int expected = legacyArt(id);
+            if (id >= 600 && id <= 622) {
+                // the old chain showed rain art for snow
+                assertEquals(R.drawable.art_rain, expected);
+                expected = R.drawable.art_snow;
+            }
+            assertEquals("art of " + id, expected, WeatherConditions.getArt(id));
+        }
+    }
+
+    public void testIconAndArtAgree() {
+        int[][] pairs = {
+                {R.drawable.ic_storm, R.drawable.art_storm},
+                {R.drawable.ic_light_rain, R.drawable.art_light_rain},
+                {R.drawable.ic_rain, R.drawable.art_rain},
+                {R.drawable.ic_snow, R.drawable.art_snow},
+                {R.drawable.ic_fog, R.drawable.art_fog},
+                {R.drawable.ic_clear, R.drawable.art_clear},
+                {R.drawable.ic_light_clouds, R.drawable.art_light_clouds},
+                {R.drawable.ic_cloudy, R.drawable.art_clouds},
+                {WeatherConditions.NO_RESOURCE, WeatherConditions.NO_RESOURCE},
+        };
+        for (int id = FIRST_TESTED_ID; id <= LAST_TESTED_ID; id++) {
+            int icon = WeatherConditions.getIcon(id);
+            int expectedArt = 0;
+            for (int[] pair : pairs) {
+                if (pair[0] == icon) {
+                    expectedArt = pair[1];
+                }
+            }
+            assertEquals("art of " + id, expectedArt, WeatherConditions.getArt(id));
+        }
+    }
+
+    public void testBenchmarkLookup() {
+        // Warm up both paths
+        int sink = lookupWithChains() + lookupWithTable();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            sink += lookupWithChains();
+        }
+        long chainNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            sink += lookupWithTable();
+        }
+        long tableNanos = System.nanoTime() - start;
+
+        int lookups = BENCHMARK_ROUNDS * (LAST_TESTED_ID - FIRST_TESTED_ID + 1) * 2;
+        Log.i(LOG_TAG, "if/else chains: " + (chainNanos * 1000 / lookups) + "ps per lookup");
+        Log.i(LOG_TAG, "table: " + (tableNanos * 1000 / lookups) + "ps per lookup (" + sink + ")");
+    }
+
+    private static int lookupWithChains() {
+        int sum = 0;
+        for (int id = FIRST_TESTED_ID; id <= LAST_TESTED_ID; id++) {
+            sum += legacyIcon(id) + legacyArt(id);
+        }
+        return sum;
+    }
+
+    private static int lookupWithTable() {
+        int sum = 0;
+        for (int id = FIRST_TESTED_ID; id <= LAST_TESTED_ID; id++) {
+            sum += WeatherConditions.getIcon(id) + WeatherConditions.getArt(id);
+        }
+        return sum;
+    }
+
+    // The icon lookup as it was before the table
+    private static int legacyIcon(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    // The art lookup as it was before the table, rain art for snow included
+    private static int legacyArt(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+}
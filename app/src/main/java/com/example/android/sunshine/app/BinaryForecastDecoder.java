@@ -0,0 +1,84 @@
+package com.example.android.sunshine.app;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoder for the compact binary forecast format served by our OpenWeatherMap proxy.
+ * <p/>
+ * Everything is big-endian and fixed width except strings, which are length prefixed
+ * (DataOutput.writeUTF). A response is laid out as:
+ * <pre>
+ *   int     MAGIC ("SWF" + version)
+ *   String  city name
+ *   double  latitude
+ *   double  longitude
+ *   int     number of days, then for each day:
+ *     long    date/time, unix seconds
+ *     double  pressure
+ *     int     humidity
+ *     double  wind speed
+ *     double  wind direction
+ *     double  max temperature
+ *     double  min temperature
+ *     int     weather id
+ *     String  short description
+ * </pre>
+ * Nothing is looked up by name, so decoding is a straight sequence of reads.
+ */
+public class BinaryForecastDecoder implements ForecastDecoder
+{
+    public static final String CONTENT_TYPE = "application/vnd.sunshine.forecast";
+    // "SWF1"
+    public static final int MAGIC = 0x53574631;
+    // A forecast is at most 16 days, anything way above that is a corrupt stream
+    private static final int MAX_DAYS = 1024;
+
+    @Override
+    public String getContentType()
+    {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void decode(InputStream in, Listener listener) throws IOException, JSONException
+    {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+        int magic = data.readInt();
+        if (magic != MAGIC)
+        {
+            throw new JSONException("Not a binary forecast, magic " + Integer.toHexString(magic));
+        }
+
+        String cityName = data.readUTF();
+        double lat = data.readDouble();
+        double lon = data.readDouble();
+        listener.onCity(cityName, lat, lon);
+
+        int numDays = data.readInt();
+        if (numDays < 0 || numDays > MAX_DAYS)
+        {
+            throw new JSONException("Bad number of days in binary forecast: " + numDays);
+        }
+        for (int i = 0; i < numDays; i++)
+        {
+            long dateTime = data.readLong();
+            double pressure = data.readDouble();
+            int humidity = data.readInt();
+            double windSpeed = data.readDouble();
+            double windDirection = data.readDouble();
+            double high = data.readDouble();
+            double low = data.readDouble();
+            int weatherId = data.readInt();
+            String description = data.readUTF();
+
+            listener.onDay(ForecastDecoders.createWeatherValues(dateTime, pressure, humidity, windSpeed,
+                    windDirection, high, low, description, weatherId));
+        }
+    }
+}
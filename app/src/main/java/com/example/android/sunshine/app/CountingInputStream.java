@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+    private long mCount;
+
+    public CountingInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+    public long getCount()
+    {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+        if (b != -1)
+        {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException
+    {
+        int read = super.read(buffer, offset, count);
+        if (read > 0)
+        {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException
+    {
+        long skipped = super.skip(count);
+        mCount += skipped;
+        return skipped;
+    }
+
+    // Marks would make the count depend on how the stream is consumed
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats the day numbers of the weather table (see {@link WeatherContract#getDbDay}) for display.
+ * <p/>
+ * This is on the bind path of every forecast row, so it avoids allocating: today's day number
+ * and the SimpleDateFormats are kept in a snapshot that is only rebuilt after midnight (or a
+ * locale or time zone change), and every label is formatted once per day and then served from a
+ * memo. Safe to use from any thread.
+ */
+public final class DayFormatter
+{
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // Days ahead of today that are shown by their day name only
+    private static final int WEEK_DAYS = 7;
+
+    private static DayFormatter sInstance;
+
+    private final Context mContext;
+    // Immutable, swapped as a whole when it expires
+    private volatile Snapshot mSnapshot;
+
+    // Labels by day number, only valid for the snapshot they were made in. Guarded by this, and
+    // only filled while holding this with the current snapshot, so a label of the snapshot
+    // before can't end up in them.
+    private final LongSparseArray<String> mFriendlyDays = new LongSparseArray<String>();
+    private final LongSparseArray<String> mDayNames = new LongSparseArray<String>();
+    private final LongSparseArray<String> mMonthDays = new LongSparseArray<String>();
+
+    private DayFormatter(Context context)
+    {
+        mContext = context.getApplicationContext();
+    }
+
+    public static synchronized DayFormatter getInstance(Context context)
+    {
+        if (sInstance == null)
+        {
+            sInstance = new DayFormatter(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * "Today, June 8", "Tomorrow", "Wednesday" for the rest of the week, "Mon Jun 8" after that.
+     */
+    public synchronized String getFriendlyDayString(long day)
+    {
+        return getFriendlyDayString(getSnapshot(), day);
+    }
+
+    /**
+     * "Today", "Tomorrow", or the day of the week ("Wednesday").
+     */
+    public synchronized String getDayName(long day)
+    {
+        return getDayName(getSnapshot(), day);
+    }
+
+    /**
+     * "June 08"
+     */
+    public synchronized String getFormattedMonthDay(long day)
+    {
+        return getFormattedMonthDay(getSnapshot(), day);
+    }
+
+    // The labels are made with the snapshot the caller got while holding this, a label that
+    // needs another one (today's needs its month day) doesn't look the snapshot up again: if
+    // the day had rolled over in between, the memo of the new snapshot would get a label made
+    // for the old today.
+    private String getFriendlyDayString(Snapshot snapshot, long day)
+    {
+        String label = mFriendlyDays.get(day);
+        if (label == null)
+        {
+            if (day == snapshot.today)
+            {
+                label = mContext.getString(R.string.format_full_friendly_date,
+                        mContext.getString(R.string.today), getFormattedMonthDay(snapshot, day));
+            } else if (day < snapshot.today + WEEK_DAYS)
+            {
+                label = getDayName(snapshot, day);
+            } else
+            {
+                label = snapshot.shortDateFormat.format(WeatherContract.getDateFromDb(day));
+            }
+            mFriendlyDays.put(day, label);
+        }
+        return label;
+    }
+
+    private String getDayName(Snapshot snapshot, long day)
+    {
+        String label = mDayNames.get(day);
+        if (label == null)
+        {
+            if (day == snapshot.today)
+            {
+                label = mContext.getString(R.string.today);
+            } else if (day == snapshot.today + 1)
+            {
+                label = mContext.getString(R.string.tomorrow);
+            } else
+            {
+                label = snapshot.dayNameFormat.format(WeatherContract.getDateFromDb(day));
+            }
+            mDayNames.put(day, label);
+        }
+        return label;
+    }
+
+    private String getFormattedMonthDay(Snapshot snapshot, long day)
+    {
+        String label = mMonthDays.get(day);
+        if (label == null)
+        {
+            label = snapshot.monthDayFormat.format(WeatherContract.getDateFromDb(day));
+            mMonthDays.put(day, label);
+        }
+        return label;
+    }
+
+    /**
+     * Today's day number, as stored in the weather table.
+     */
+    public long getToday()
+    {
+        return getSnapshot().today;
+    }
+
+    // Returns the current snapshot, replacing it and dropping the memo once it has expired
+    private Snapshot getSnapshot()
+    {
+        Snapshot snapshot = mSnapshot;
+        long now = System.currentTimeMillis();
+        if (snapshot != null && snapshot.isValid(now))
+        {
+            return snapshot;
+        }
+        synchronized (this)
+        {
+            // another thread may have replaced it while this one waited
+            snapshot = mSnapshot;
+            if (snapshot != null && snapshot.isValid(now))
+            {
+                return snapshot;
+            }
+            snapshot = new Snapshot(now);
+            mSnapshot = snapshot;
+            mFriendlyDays.clear();
+            mDayNames.clear();
+            mMonthDays.clear();
+        }
+        return snapshot;
+    }
+
+    // What "today" means until the next local midnight, and the formatters of the locale and
+    // time zone it was taken in. SimpleDateFormat isn't thread-safe: they are only used while
+    // holding the DayFormatter's lock.
+    private static final class Snapshot
+    {
+        final long today;
+        // [validFrom, validUntil) in epoch millis, the local day the snapshot was taken in
+        final long validFrom;
+        final long validUntil;
+        final Locale locale;
+        final String timeZoneId;
+        final SimpleDateFormat dayNameFormat;
+        final SimpleDateFormat monthDayFormat;
+        final SimpleDateFormat shortDateFormat;
+
+        Snapshot(long now)
+        {
+            TimeZone timeZone = TimeZone.getDefault();
+            today = WeatherContract.getDbDay(now);
+            validFrom = getStartOfDay(today, timeZone);
+            validUntil = getStartOfDay(today + 1, timeZone);
+            locale = Locale.getDefault();
+            timeZoneId = timeZone.getID();
+            dayNameFormat = createFormat("EEEE", locale, timeZone);
+            monthDayFormat = createFormat("MMMM dd", locale, timeZone);
+            shortDateFormat = createFormat("EEE MMM dd", locale, timeZone);
+        }
+
+        // TimeZone.getDefault() returns a copy, the one allocation left on the bind path, so a
+        // time zone change is noticed without a broadcast receiver
+        boolean isValid(long now)
+        {
+            return now >= validFrom && now < validUntil && locale.equals(Locale.getDefault())
+                    && timeZoneId.equals(TimeZone.getDefault().getID());
+        }
+
+        private static SimpleDateFormat createFormat(String pattern, Locale locale, TimeZone timeZone)
+        {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+            format.setTimeZone(timeZone);
+            return format;
+        }
+
+        // Local midnight of the day. The offset is looked up twice so a daylight saving change
+        // on that day is accounted for.
+        private static long getStartOfDay(long day, TimeZone timeZone)
+        {
+            long utcMidnight = day * DAY_MILLIS;
+            long guess = utcMidnight - timeZone.getOffset(utcMidnight);
+            return utcMidnight - timeZone.getOffset(guess);
+        }
+    }
+}
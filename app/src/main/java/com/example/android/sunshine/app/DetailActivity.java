@@ -19,10 +19,10 @@ public class DetailActivity extends ActionBarActivity
 
         if (savedInstanceState == null)
         {
-            String date = getIntent().getStringExtra(DATE_KEY);
+            long date = getIntent().getLongExtra(DATE_KEY, 0);
 
             Bundle arguments = new Bundle();
-            arguments.putString(DetailActivity.DATE_KEY, date);
+            arguments.putLong(DetailActivity.DATE_KEY, date);
 
             DetailFragment fragment = new DetailFragment();
             fragment.setArguments(arguments);
@@ -1,9 +1,11 @@
 package com.example.android.sunshine.app;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -25,7 +27,7 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 /**
  * A placeholder fragment containing a simple view.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, ForecastRowStore.Listener
 {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
@@ -37,13 +39,13 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private ShareActionProvider mShareActionProvider;
     private String mLocation;
     private String mForecast;
-    private String mDateStr;
+    private long mDate;
 
     private static final int DETAIL_LOADER = 0;
 
     private static final String[] FORECAST_COLUMNS = {
             WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATETEXT,
+            WeatherEntry.COLUMN_DATE,
             WeatherEntry.COLUMN_SHORT_DESC,
             WeatherEntry.COLUMN_MAX_TEMP,
             WeatherEntry.COLUMN_MIN_TEMP,
@@ -67,6 +69,10 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private TextView mWindView;
     private TextView mPressureView;
 
+    // Watches the day while it is shown from ForecastRowStore, in case the list isn't running to
+    // publish new rows (single pane, with MainActivity stopped behind DetailActivity)
+    private ContentObserver mDayObserver;
+
     public DetailFragment()
     {
         setHasOptionsMenu(true);
@@ -87,7 +93,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         Bundle arguments = getArguments();
         if (arguments != null)
         {
-            mDateStr = arguments.getString(DetailActivity.DATE_KEY);
+            mDate = arguments.getLong(DetailActivity.DATE_KEY);
         }
 
         if (savedInstanceState != null)
@@ -113,11 +119,77 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     {
         super.onResume();
         Bundle arguments = getArguments();
-        if (arguments != null && arguments.containsKey(DetailActivity.DATE_KEY) &&
-                mLocation != null &&
-                !mLocation.equals(Utility.getPreferredLocation(getActivity())))
+        if (arguments != null && arguments.containsKey(DetailActivity.DATE_KEY))
+        {
+            ForecastRowStore.addListener(this);
+            showDay();
+        }
+    }
+
+    @Override
+    public void onPause()
+    {
+        ForecastRowStore.removeListener(this);
+        stopWatchingDay();
+        super.onPause();
+    }
+
+    @Override
+    public void onRowsChanged()
+    {
+        showDay();
+    }
+
+    // Shows the day from the rows the forecast list loaded if it has it, only queries otherwise
+    private void showDay()
+    {
+        String shownLocation = mLocation;
+        mLocation = Utility.getPreferredLocation(getActivity());
+        ForecastRow row = ForecastRowStore.get(mLocation, mDate);
+        if (row != null)
+        {
+            bind(row.weatherId, row.date, row.description, row.high, row.low,
+                    (float) row.humidity, (float) row.windSpeed, (float) row.degrees, (float) row.pressure);
+            watchDay();
+            return;
+        }
+
+        stopWatchingDay();
+        if (shownLocation != null && !shownLocation.equals(mLocation))
         {
             getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+        } else
+        {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
+    }
+
+    private void watchDay()
+    {
+        if (mDayObserver != null)
+        {
+            return;
+        }
+        mDayObserver = new ContentObserver(new Handler())
+        {
+            @Override
+            public void onChange(boolean selfChange)
+            {
+                // the rows may not be republished, read the day itself from now on
+                stopWatchingDay();
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, DetailFragment.this);
+            }
+        };
+        getActivity().getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(mLocation, mDate), false, mDayObserver);
+    }
+
+    private void stopWatchingDay()
+    {
+        if (mDayObserver != null)
+        {
+            getActivity().getContentResolver().unregisterContentObserver(mDayObserver);
+            mDayObserver = null;
         }
     }
 
@@ -158,8 +230,10 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mLocation = savedInstanceState.getString(LOCATION_KEY);
         }
 
+        // nothing to load if the list already has the day, see showDay()
         Bundle arguments = getArguments();
-        if (arguments != null && arguments.containsKey(DetailActivity.DATE_KEY))
+        if (arguments != null && arguments.containsKey(DetailActivity.DATE_KEY)
+                && ForecastRowStore.get(Utility.getPreferredLocation(getActivity()), mDate) == null)
         {
             getLoaderManager().initLoader(DETAIL_LOADER, null, this);
         }
@@ -169,11 +243,11 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public Loader<Cursor> onCreateLoader(int id, Bundle args)
     {
         // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATETEXT + " ASC";
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         mLocation = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                mLocation, mDateStr);
+                mLocation, mDate);
 
         // Now create and return a CursorLoader that will take care of
         // creating a Cursor for the data being displayed.
@@ -192,56 +266,48 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     {
         if (data != null && data.moveToFirst())
         {
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(data.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID));
-            // Use weather art image
-            mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-
-            // Read date from cursor and update views for day of week and date
-            String date = data.getString(data.getColumnIndex(WeatherEntry.COLUMN_DATETEXT));
-            String friendlyDateText = Utility.getDayName(getActivity(), date);
-            String dateText = Utility.getFormattedMonthDay(getActivity(), date);
-            mFriendlyDateView.setText(friendlyDateText);
-            mDateView.setText(dateText);
-
-            // Read description from cursor and update view
-            String description = data.getString(data.getColumnIndex(
-                    WeatherEntry.COLUMN_SHORT_DESC));
-            mDescriptionView.setText(description);
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(data.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
-            String highString = Utility.formatTemperature(getActivity(), high, isMetric);
-            mHighTempView.setText(highString);
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(data.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP));
-            String lowString = Utility.formatTemperature(getActivity(), low, isMetric);
-            mLowTempView.setText(lowString);
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY));
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED));
-            float windDirStr = data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_DEGREES));
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_PRESSURE));
-            mPressureView.setText(getActivity().getString(R.string.format_pressure, pressure));
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
-
-            // If onCreateOptionsMenu has already happened, we need to update the share intent now.
-            if (mShareActionProvider != null)
-            {
-                mShareActionProvider.setShareIntent(createShareForecastIntent());
-            }
+            bind(data.getInt(data.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)),
+                    data.getLong(data.getColumnIndex(WeatherEntry.COLUMN_DATE)),
+                    data.getString(data.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)),
+                    data.getDouble(data.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)),
+                    data.getDouble(data.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)),
+                    data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)),
+                    data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED)),
+                    data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_DEGREES)),
+                    data.getFloat(data.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)));
+        }
+    }
+
+    // Puts a day on the views, whether it came from the loader or from ForecastRowStore
+    private void bind(int weatherId, long date, String description, double high, double low,
+                      float humidity, float windSpeed, float windDirection, float pressure)
+    {
+        // Use weather art image
+        mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+
+        // Update views for day of week and date
+        String friendlyDateText = Utility.getDayName(getActivity(), date);
+        String dateText = Utility.getFormattedMonthDay(getActivity(), date);
+        mFriendlyDateView.setText(friendlyDateText);
+        mDateView.setText(dateText);
+
+        mDescriptionView.setText(description);
+
+        boolean isMetric = Utility.isMetric(getActivity());
+        mHighTempView.setText(Utility.formatTemperature(getActivity(), high, isMetric));
+        mLowTempView.setText(Utility.formatTemperature(getActivity(), low, isMetric));
+
+        mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
+        mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeed, windDirection));
+        mPressureView.setText(getActivity().getString(R.string.format_pressure, pressure));
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+
+        // If onCreateOptionsMenu has already happened, we need to update the share intent now.
+        if (mShareActionProvider != null)
+        {
+            mShareActionProvider.setShareIntent(createShareForecastIntent());
         }
     }
 
@@ -1,8 +1,8 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.support.v4.widget.CursorAdapter;
+import android.os.AsyncTask;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,39 +10,151 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 
-public class ForecastAdapter extends CursorAdapter
+/**
+ * Shows the {@link ForecastRow}s made by the {@link ForecastLoader}. Everything is formatted
+ * already, binding a row only sets the views.
+ * <p/>
+ * New rows are diffed against the shown ones on a background thread (see
+ * {@link ForecastRowDiff}) and only the rows that changed are notified, so a refresh that
+ * changes one day rebinds one row. Item ids are the weather table's _id.
+ */
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ViewHolder>
 {
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
-    private static final int VIEW_TYPE_COUNT = 2;
+    private static final ForecastRow[] NO_ROWS = new ForecastRow[0];
+
+    public interface OnRowClickListener
+    {
+        public void onRowClick(ForecastRow row, int position);
+    }
+
+    private final Context mContext;
+    private final OnRowClickListener mListener;
+    private ForecastRow[] mRows = NO_ROWS;
     private boolean mUseTodayLayout;
+    private boolean mSingleChoice;
+    // By id rather than position, so the selection follows its row through a diff
+    private long mSelectedId = RecyclerView.NO_ID;
+    // Bumped on every swap, so a diff that finishes after a newer swap is dropped
+    private int mGeneration;
 
-    public ForecastAdapter(Context context, Cursor c, int flags)
+    public ForecastAdapter(Context context, OnRowClickListener listener)
     {
-        super(context, c, flags);
+        mContext = context;
+        mListener = listener;
+        mSingleChoice = context.getResources().getBoolean(R.bool.forecast_single_choice);
+        setHasStableIds(true);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout)
     {
-        mUseTodayLayout = useTodayLayout;
+        if (mUseTodayLayout != useTodayLayout)
+        {
+            mUseTodayLayout = useTodayLayout;
+            if (mRows.length > 0)
+            {
+                notifyItemChanged(0);
+            }
+        }
+    }
+
+    /**
+     * Keeps the row at the position activated, for the two pane layout.
+     */
+    public void setSelectedPosition(int position)
+    {
+        if (!mSingleChoice || position < 0 || position >= mRows.length)
+        {
+            return;
+        }
+        for (int i = 0; i < mRows.length; i++)
+        {
+            if (mRows[i].id == mSelectedId)
+            {
+                notifyItemChanged(i);
+            }
+        }
+        mSelectedId = mRows[position].id;
+        notifyItemChanged(position);
+    }
+
+    /**
+     * Shows new rows. The first rows are shown right away, after that the change is diffed on
+     * a background thread and applied when done.
+     */
+    public void swapRows(ForecastRow[] rows)
+    {
+        final ForecastRow[] newRows = rows != null ? rows : NO_ROWS;
+        final ForecastRow[] oldRows = mRows;
+        final int generation = ++mGeneration;
+        if (oldRows.length == 0 || newRows.length == 0)
+        {
+            mRows = newRows;
+            notifyDataSetChanged();
+            return;
+        }
+
+        new AsyncTask<Void, Void, ForecastRowDiff>()
+        {
+            @Override
+            protected ForecastRowDiff doInBackground(Void... params)
+            {
+                return ForecastRowDiff.compute(oldRows, newRows);
+            }
+
+            @Override
+            protected void onPostExecute(ForecastRowDiff diff)
+            {
+                if (generation == mGeneration)
+                {
+                    applyRows(newRows, diff);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
+
+    // Replaces the rows and notifies the changes, the diff must be from the rows shown now
+    void applyRows(ForecastRow[] newRows, ForecastRowDiff diff)
+    {
+        ForecastRow[] oldRows = mRows;
+        mRows = newRows;
+        diff.dispatchTo(this);
+        // the first row may be another one now, and only the first row has the today layout
+        if (mUseTodayLayout && newRows.length > 0
+                && (oldRows.length == 0 || oldRows[0].id != newRows[0].id))
+        {
+            notifyItemChanged(0);
+        }
+    }
+
+    public ForecastRow getItem(int position)
+    {
+        return mRows[position];
+    }
+
     @Override
-    public int getItemViewType(int position)
+    public int getItemCount()
     {
-        return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
+        return mRows.length;
     }
 
     @Override
-    public int getViewTypeCount()
+    public long getItemId(int position)
     {
-        return VIEW_TYPE_COUNT;
+        return mRows[position].id;
     }
 
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent)
+    public int getItemViewType(int position)
+    {
+        return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType)
     {
         // Choose the layout type TODAY or OTHER Days
-        int viewType = getItemViewType(cursor.getPosition());
         int layoutId = -1;
         if (viewType == VIEW_TYPE_FUTURE_DAY)
         {
@@ -52,56 +164,29 @@ public class ForecastAdapter extends CursorAdapter
             layoutId = R.layout.list_item_forecast_today;
         }
 
-        View view = LayoutInflater.from(context).inflate(layoutId, parent, false);
-
-        ViewHolder viewHolder = new ViewHolder(view);
-        view.setTag(viewHolder);
-
-        return view;
+        View view = LayoutInflater.from(mContext).inflate(layoutId, parent, false);
+        return new ViewHolder(view);
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor)
+    public void onBindViewHolder(ViewHolder viewHolder, int position)
     {
-        ViewHolder viewHolder = (ViewHolder) view.getTag();
-
-        // Read weather icon ID from cursor
-        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_ID);
-        // Use placeholder image for now
-        if (getItemViewType(cursor.getPosition()) == VIEW_TYPE_TODAY)
-        {
-            viewHolder.iconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-        } else
-        {
-            viewHolder.iconView.setImageResource(Utility.getIconResourceForWeatherCondition(weatherId));
-        }
-
-        // Read date from cursor
-        String dateString = cursor.getString(ForecastFragment.COL_WEATHER_DATE);
-        // Find TextView and set formatted date on it
-        viewHolder.dateView.setText(Utility.getFriendlyDayString(context, dateString));
-
-        // Read weather forecast from cursor
-        String description = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
-        // Find TextView and set weather forecast on it
-        viewHolder.descriptionView.setText(description);
-
-        // Read user preference for metric or imperial temperature units
-        boolean isMetric = Utility.isMetric(context);
-
-        // Read high temperature from cursor
-        float high = cursor.getFloat(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        viewHolder.highTempView.setText(Utility.formatTemperature(context, high, isMetric));
-
-        // Read low temperature from cursor
-        float low = cursor.getFloat(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        viewHolder.lowTempView.setText(Utility.formatTemperature(context, low, isMetric));
+        ForecastRow row = mRows[position];
+
+        // The big art for today, the small icon for the other days
+        viewHolder.iconView.setImageResource(
+                getItemViewType(position) == VIEW_TYPE_TODAY ? row.artResId : row.iconResId);
+        viewHolder.dateView.setText(row.dateLabel);
+        viewHolder.descriptionView.setText(row.description);
+        viewHolder.highTempView.setText(row.highLabel);
+        viewHolder.lowTempView.setText(row.lowLabel);
+        viewHolder.itemView.setActivated(row.id == mSelectedId);
     }
 
     /**
      * Cache of the children views for a forecast list item.
      */
-    public static class ViewHolder
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener
     {
         public final ImageView iconView;
         public final TextView dateView;
@@ -111,11 +196,24 @@ public class ForecastAdapter extends CursorAdapter
 
         public ViewHolder(View view)
         {
+            super(view);
             iconView = (ImageView) view.findViewById(R.id.list_item_icon);
             dateView = (TextView) view.findViewById(R.id.list_item_date_textview);
             descriptionView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
             highTempView = (TextView) view.findViewById(R.id.list_item_high_textview);
             lowTempView = (TextView) view.findViewById(R.id.list_item_low_textview);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view)
+        {
+            int position = getPosition();
+            if (position != RecyclerView.NO_POSITION && position < mRows.length)
+            {
+                setSelectedPosition(position);
+                mListener.onRowClick(mRows[position], position);
+            }
         }
     }
 }
@@ -0,0 +1,40 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Turns a forecast response body into weather rows. Implementations are picked by the content
+ * type of the response, see {@link ForecastDecoders#forContentType}.
+ */
+public interface ForecastDecoder
+{
+    /**
+     * Receives the decoded forecast. {@link #onCity} is always called before the first
+     * {@link #onDay}, whatever order the response has them in.
+     */
+    public interface Listener
+    {
+        public void onCity(String cityName, double lat, double lon);
+
+        // weatherValues holds every weather column except the location key, which is up to the
+        // listener to fill in.
+        public void onDay(ContentValues weatherValues);
+    }
+
+    /**
+     * The content type to ask for in the Accept header of the request.
+     */
+    public String getContentType();
+
+    /**
+     * Decodes a response body. The stream is not closed.
+     *
+     * @throws JSONException if the body is well formed but not a forecast we understand
+     */
+    public void decode(InputStream in, Listener listener) throws IOException, JSONException;
+}
@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+
+/**
+ * Picks the {@link ForecastDecoder} for a response and holds what the decoders share.
+ */
+public final class ForecastDecoders
+{
+    private ForecastDecoders()
+    {
+    }
+
+    /**
+     * Returns the decoder for the given Content-Type header value. Anything that isn't one of
+     * our compact formats goes to the JSON parser, which is what OpenWeatherMap itself serves.
+     */
+    public static ForecastDecoder forContentType(String contentType)
+    {
+        if (contentType != null && contentType.startsWith(BinaryForecastDecoder.CONTENT_TYPE))
+        {
+            return new BinaryForecastDecoder();
+        }
+        return new ForecastJsonParser();
+    }
+
+    /**
+     * Builds the weather row of one day, without the location key.
+     *
+     * @param dateTime the day as a unix timestamp, in seconds
+     */
+    static ContentValues createWeatherValues(long dateTime, double pressure, int humidity, double windSpeed,
+                                             double windDirection, double high, double low,
+                                             String description, int weatherId)
+    {
+        ContentValues weatherValues = new ContentValues();
+        // The API returns a unix timestamp in seconds, getDbDay wants milliseconds.
+        weatherValues.put(WeatherEntry.COLUMN_DATE, WeatherContract.getDbDay(dateTime * 1000L));
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+}
@@ -0,0 +1,569 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ResponseCacheEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Downloads the daily forecast of a location from OpenWeatherMap and stores it in the database.
+ * <p/>
+ * Requests are conditional: the ETag and Last-Modified validators of the last response are kept
+ * in the response cache table along with a hash of its body, so a 304 answer or a body identical
+ * to the last one skips both the parse and the write. Connections come from the shared
+ * {@link WeatherHttpClient}, so consecutive fetches reuse the same keep-alive socket.
+ */
+public class ForecastFetcher
+{
+    public static final String DEFAULT_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+    private static final String DAILY_PATH_SUFFIX = "/daily";
+
+    private static final String[] RESPONSE_CACHE_COLUMNS = {
+            ResponseCacheEntry.COLUMN_ETAG,
+            ResponseCacheEntry.COLUMN_LAST_MODIFIED,
+            ResponseCacheEntry.COLUMN_CONTENT_HASH
+    };
+    private static final int COL_ETAG = 0;
+    private static final int COL_LAST_MODIFIED = 1;
+    private static final int COL_CONTENT_HASH = 2;
+
+    private final Context mContext;
+    private final String mBaseUrl;
+    private final boolean mAcceptBinary;
+    private final WeatherHttpClient mClient = WeatherHttpClient.getInstance();
+
+    public ForecastFetcher(Context context)
+    {
+        this(context, DEFAULT_BASE_URL, false);
+    }
+
+    // baseUrl lets tests point the fetcher at a local stand-in server
+    public ForecastFetcher(Context context, String baseUrl)
+    {
+        this(context, baseUrl, false);
+    }
+
+    /**
+     * @param acceptBinary ask for the compact binary format of {@link BinaryForecastDecoder}.
+     *                     Only our proxy serves it, so only set this when baseUrl points there;
+     *                     a JSON answer is still understood either way.
+     */
+    public ForecastFetcher(Context context, String baseUrl, boolean acceptBinary)
+    {
+        mContext = context;
+        mBaseUrl = baseUrl;
+        mAcceptBinary = acceptBinary;
+    }
+
+    /**
+     * Downloads and stores the forecast for the given location setting.
+     */
+    public Forecast fetch(String locationSetting) throws IOException, JSONException
+    {
+        Forecast forecast = download(locationSetting);
+        save(forecast);
+        return forecast;
+    }
+
+    /**
+     * Downloads and parses the forecast for the given location setting without storing it.
+     * Use {@link #save} to write the result to the database.
+     */
+    public Forecast download(String locationSetting) throws IOException, JSONException
+    {
+        final Forecast forecast = new Forecast(locationSetting);
+
+        String cachedEtag = null;
+        String cachedLastModified = null;
+        String cachedHash = null;
+        Cursor cursor = mContext.getContentResolver().query(
+                ResponseCacheEntry.CONTENT_URI,
+                RESPONSE_CACHE_COLUMNS,
+                ResponseCacheEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor != null)
+        {
+            if (cursor.moveToFirst())
+            {
+                cachedEtag = cursor.getString(COL_ETAG);
+                cachedLastModified = cursor.getString(COL_LAST_MODIFIED);
+                cachedHash = cursor.getString(COL_CONTENT_HASH);
+            }
+            cursor.close();
+        }
+
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .build();
+
+        URL url = new URL(builtUri.toString());
+
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        // Only a response that was handled all the way gives its socket back to the pool
+        boolean reusable = false;
+        try
+        {
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = mClient.open(url);
+            // Setting this ourselves turns off HttpURLConnection's transparent gzip, so we can
+            // count the compressed bytes and decompress straight into the decoder.
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            if (mAcceptBinary)
+            {
+                urlConnection.setRequestProperty("Accept",
+                        BinaryForecastDecoder.CONTENT_TYPE + ", " + ForecastJsonParser.CONTENT_TYPE + ";q=0.5");
+            }
+            if (cachedEtag != null)
+            {
+                urlConnection.setRequestProperty("If-None-Match", cachedEtag);
+            }
+            if (cachedLastModified != null)
+            {
+                urlConnection.setRequestProperty("If-Modified-Since", cachedLastModified);
+            }
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                // What we have is still current, keep the old validators and body hash.
+                forecast.status = Forecast.NOT_MODIFIED;
+                forecast.etag = cachedEtag;
+                forecast.lastModified = cachedLastModified;
+                forecast.contentHash = cachedHash;
+                reusable = true;
+                return forecast;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK)
+            {
+                reusable = true;
+                throw new IOException("Unexpected response " + responseCode + " for " + url);
+            }
+
+            forecast.etag = urlConnection.getHeaderField("ETag");
+            forecast.lastModified = urlConnection.getHeaderField("Last-Modified");
+
+            // wire counts what came over the network, decoded what the decoder gets after
+            // decompression. The hash is over the decoded body so it doesn't depend on the encoding.
+            CountingInputStream wire = new CountingInputStream(urlConnection.getInputStream());
+            in = wire;
+            CountingInputStream decoded = new CountingInputStream(
+                    decompress(wire, urlConnection.getContentEncoding()));
+            // Hash the body while it is being decoded, so an identical response can be dropped
+            // without buffering it.
+            DigestInputStream inputStream = new DigestInputStream(decoded, newDigest());
+            // closing the outermost stream also releases the inflater
+            in = inputStream;
+            ForecastDecoder decoder = ForecastDecoders.forContentType(urlConnection.getContentType());
+            decoder.decode(inputStream, new ForecastDecoder.Listener()
+            {
+                @Override
+                public void onCity(String cityName, double lat, double lon)
+                {
+                    Log.v(LOG_TAG, cityName + ", with coord: " + lat + " " + lon);
+                    forecast.cityName = cityName;
+                    forecast.lat = lat;
+                    forecast.lon = lon;
+                }
+
+                @Override
+                public void onDay(ContentValues weatherValues)
+                {
+                    forecast.days.add(weatherValues);
+                }
+            });
+            // The decoder may stop before the end of the body, the rest still counts for the hash.
+            drain(inputStream);
+            forecast.contentHash = toHex(inputStream.getMessageDigest().digest());
+            forecast.wireBytes = wire.getCount();
+            forecast.decodedBytes = decoded.getCount();
+
+            forecast.status = forecast.contentHash.equals(cachedHash) ? Forecast.UNCHANGED : Forecast.UPDATED;
+            reusable = true;
+            return forecast;
+        } finally
+        {
+            if (urlConnection != null)
+            {
+                if (reusable)
+                {
+                    mClient.release(urlConnection);
+                } else
+                {
+                    mClient.abort(urlConnection);
+                }
+            }
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                } catch (final IOException e)
+                {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the 3-hourly forecast of the location setting and stores its slots in the hourly
+     * table, replacing the slots already stored for the same times.
+     *
+     * @return the number of slots stored
+     */
+    public int fetchHourly(String locationSetting) throws IOException, JSONException
+    {
+        Uri builtUri = Uri.parse(getHourlyBaseUrl(mBaseUrl)).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .build();
+        URL url = new URL(builtUri.toString());
+
+        final Forecast hourly = new Forecast(locationSetting);
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        boolean reusable = false;
+        try
+        {
+            urlConnection = mClient.open(url);
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK)
+            {
+                reusable = true;
+                throw new IOException("Unexpected response " + responseCode + " for " + url);
+            }
+
+            in = decompress(urlConnection.getInputStream(), urlConnection.getContentEncoding());
+            new HourlyForecastJsonParser().decode(in, new ForecastDecoder.Listener()
+            {
+                @Override
+                public void onCity(String cityName, double lat, double lon)
+                {
+                    hourly.cityName = cityName;
+                    hourly.lat = lat;
+                    hourly.lon = lon;
+                }
+
+                @Override
+                public void onDay(ContentValues slotValues)
+                {
+                    hourly.days.add(slotValues);
+                }
+            });
+            reusable = true;
+        } finally
+        {
+            if (urlConnection != null)
+            {
+                if (reusable)
+                {
+                    mClient.release(urlConnection);
+                } else
+                {
+                    mClient.abort(urlConnection);
+                }
+            }
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                } catch (final IOException e)
+                {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+
+        if (hourly.days.isEmpty())
+        {
+            return 0;
+        }
+        long locationId = addLocation(locationSetting, hourly.cityName, hourly.lat, hourly.lon);
+        for (ContentValues slot : hourly.days)
+        {
+            slot.put(HourlyEntry.COLUMN_LOC_KEY, locationId);
+        }
+        return mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                hourly.days.toArray(new ContentValues[hourly.days.size()]));
+    }
+
+    // The 3-hourly forecast lives next to the daily one: .../forecast/daily? -> .../forecast?
+    private static String getHourlyBaseUrl(String dailyBaseUrl)
+    {
+        Uri dailyUri = Uri.parse(dailyBaseUrl);
+        String path = dailyUri.getPath();
+        if (path != null && path.endsWith(DAILY_PATH_SUFFIX))
+        {
+            path = path.substring(0, path.length() - DAILY_PATH_SUFFIX.length());
+        }
+        return dailyUri.buildUpon().path(path).build().toString();
+    }
+
+    /**
+     * Stores a downloaded forecast. Only an {@link Forecast#UPDATED} forecast touches the
+     * location and weather tables; the others just refresh the response cache entry.
+     */
+    public void save(Forecast forecast)
+    {
+        Bundle counts = save(Collections.singletonList(forecast));
+        forecast.insertedRows = counts.getInt(WeatherContract.EXTRA_INSERTED);
+        forecast.updatedRows = counts.getInt(WeatherContract.EXTRA_UPDATED);
+        forecast.unchangedRows = counts.getInt(WeatherContract.EXTRA_UNCHANGED);
+    }
+
+    /**
+     * Stores several downloaded forecasts at once, as a single provider batch: the locations, the
+     * weather rows and the response cache entries of all of them are written in one transaction,
+     * with one change notification, or not at all.
+     *
+     * @return the inserted, updated and unchanged row counts of the batch, keyed by
+     * WeatherContract.EXTRA_INSERTED, EXTRA_UPDATED and EXTRA_UNCHANGED
+     */
+    public Bundle save(List<Forecast> forecasts)
+    {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (Forecast forecast : forecasts)
+        {
+            if (forecast.status != Forecast.UPDATED)
+            {
+                continue;
+            }
+            // the days take the location's id from the result of this one
+            int locationIndex = operations.size();
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.buildLocationGetOrCreateUri())
+                    .withValues(createLocationValues(forecast.locationSetting, forecast.cityName,
+                            forecast.lat, forecast.lon))
+                    .build());
+            for (ContentValues day : forecast.days)
+            {
+                // upsert so only the days that actually changed are written
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.buildWeatherUpsertUri())
+                        .withValues(day)
+                        .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, locationIndex)
+                        .build());
+            }
+        }
+        // In the same transaction, so a response is never remembered without its forecast
+        // (it would be skipped as "unchanged" on the next refresh) nor the other way around.
+        for (Forecast forecast : forecasts)
+        {
+            operations.add(ContentProviderOperation.newInsert(ResponseCacheEntry.CONTENT_URI)
+                    .withValues(createResponseCacheValues(forecast))
+                    .build());
+        }
+
+        ContentProviderResult[] results;
+        try
+        {
+            results = mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException e)
+        {
+            // the provider runs in this process
+            throw new IllegalStateException(e);
+        } catch (OperationApplicationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+
+        int inserted = 0;
+        int updated = 0;
+        int unchanged = 0;
+        for (ContentProviderResult result : results)
+        {
+            String upsertResult = result.uri == null ? null : WeatherEntry.getUpsertResultFromUri(result.uri);
+            if (WeatherContract.EXTRA_INSERTED.equals(upsertResult))
+            {
+                inserted++;
+            } else if (WeatherContract.EXTRA_UPDATED.equals(upsertResult))
+            {
+                updated++;
+            } else if (WeatherContract.EXTRA_UNCHANGED.equals(upsertResult))
+            {
+                unchanged++;
+            }
+        }
+        Bundle counts = new Bundle();
+        counts.putInt(WeatherContract.EXTRA_INSERTED, inserted);
+        counts.putInt(WeatherContract.EXTRA_UPDATED, updated);
+        counts.putInt(WeatherContract.EXTRA_UNCHANGED, unchanged);
+        return counts;
+    }
+
+    private static ContentValues createResponseCacheValues(Forecast forecast)
+    {
+        ContentValues cacheValues = new ContentValues();
+        cacheValues.put(ResponseCacheEntry.COLUMN_LOCATION_SETTING, forecast.locationSetting);
+        cacheValues.put(ResponseCacheEntry.COLUMN_ETAG, forecast.etag);
+        cacheValues.put(ResponseCacheEntry.COLUMN_LAST_MODIFIED, forecast.lastModified);
+        cacheValues.put(ResponseCacheEntry.COLUMN_CONTENT_HASH, forecast.contentHash);
+        cacheValues.put(ResponseCacheEntry.COLUMN_FETCHED, System.currentTimeMillis());
+        return cacheValues;
+    }
+
+    // Resolved by the provider in one call, which answers from its location id cache once the
+    // location has been seen, so a refresh normally doesn't query the location table at all.
+    protected long addLocation(String locationSetting, String cityName, double lat, double lon)
+    {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_VALUES, createLocationValues(locationSetting, cityName, lat, lon));
+        Bundle result = mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_OR_CREATE_LOCATION, null, extras);
+        return result.getLong(WeatherContract.EXTRA_LOCATION_ID);
+    }
+
+    private static ContentValues createLocationValues(String locationSetting, String cityName, double lat, double lon)
+    {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e)
+        {
+            // every Android release ships SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Wraps the body in the decompressor its Content-Encoding calls for
+    private static InputStream decompress(InputStream in, String contentEncoding) throws IOException
+    {
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding))
+        {
+            return in;
+        }
+        if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding))
+        {
+            return new GZIPInputStream(in);
+        }
+        if ("deflate".equalsIgnoreCase(contentEncoding))
+        {
+            // "deflate" is supposed to be zlib wrapped, but some servers send the raw stream.
+            // A zlib header is a CM of 8 in the low nibble and a 16 bit value divisible by 31.
+            BufferedInputStream buffered = new BufferedInputStream(in);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlibWrapped = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlibWrapped));
+        }
+        throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1)
+        {
+            // just consuming
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Result of a forecast download for one location setting.
+     */
+    public static class Forecast
+    {
+        // The body was new, days holds the parsed forecast.
+        public static final int UPDATED = 0;
+        // The server answered 304 Not Modified, nothing was downloaded.
+        public static final int NOT_MODIFIED = 1;
+        // The body hashed the same as the stored one, there is nothing new to store.
+        public static final int UNCHANGED = 2;
+
+        public final String locationSetting;
+        public final List<ContentValues> days = new ArrayList<ContentValues>();
+        public int status;
+        public String cityName;
+        public double lat;
+        public double lon;
+        public String etag;
+        public String lastModified;
+        public String contentHash;
+        // What save() did with the days, filled in for UPDATED forecasts
+        public int insertedRows;
+        public int updatedRows;
+        public int unchangedRows;
+        // Body size as transferred and after decompression, 0 if there was no body
+        public long wireBytes;
+        public long decodedBytes;
+
+        Forecast(String locationSetting)
+        {
+            this.locationSetting = locationSetting;
+        }
+    }
+}
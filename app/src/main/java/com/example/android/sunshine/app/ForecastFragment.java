@@ -1,11 +1,9 @@
 package com.example.android.sunshine.app;
 
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -13,27 +11,31 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 import java.util.ArrayList;
-import java.util.Date;
 
 
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<ForecastRow[]>
 {
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
     // must change.
+    public static final int COL_WEATHER_ENTRY_ID = 0;
     public static final int COL_WEATHER_ID = 6;
     public static final int COL_WEATHER_DATE = 1;
     public static final int COL_WEATHER_DESC = 2;
     public static final int COL_WEATHER_MAX_TEMP = 3;
     public static final int COL_WEATHER_MIN_TEMP = 4;
     public static final int COL_LOCATION_SETTING = 5;
+    public static final int COL_WEATHER_HUMIDITY = 7;
+    public static final int COL_WEATHER_PRESSURE = 8;
+    public static final int COL_WEATHER_WIND_SPEED = 9;
+    public static final int COL_WEATHER_DEGREES = 10;
     private static final int FORECAST_LOADER = 0; //A Fragment can have multiple loaders and you specify a number for each of them.
     private static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
@@ -43,24 +45,32 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             // using the location set by the user, which is only in the Location table.
             // So the convenience is worth it.
             WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATETEXT,
+            WeatherEntry.COLUMN_DATE,
             WeatherEntry.COLUMN_SHORT_DESC,
             WeatherEntry.COLUMN_MAX_TEMP,
             WeatherEntry.COLUMN_MIN_TEMP,
             LocationEntry.COLUMN_LOCATION_SETTING,
-            WeatherEntry.COLUMN_WEATHER_ID
+            WeatherEntry.COLUMN_WEATHER_ID,
+            // Not shown in the list, loaded along so the detail pane doesn't have to query the
+            // day again, see ForecastRowStore
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
     };
     private String mLocation;
-    private int mPosition;
+    private int mPosition = RecyclerView.NO_POSITION;
+    // Only the first load after (re)creating the view scrolls, a refresh keeps the list where it is
+    private boolean mRestorePosition = true;
     private ForecastAdapter mForecastAdapter;
-    private ListView mListView;
+    private RecyclerView mRecyclerView;
     private boolean mUseTodayLayout;
 
     private static final String SELECTED_KEY = "selected_position";
 
     public interface Callback
     {
-        public void onItemSelected(String date);
+        public void onItemSelected(long date);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout)
@@ -90,7 +100,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onSaveInstanceState(Bundle outState)
     {
         super.onSaveInstanceState(outState);
-        if (mPosition != ListView.INVALID_POSITION)
+        if (mPosition != RecyclerView.NO_POSITION)
         {
             outState.putInt(SELECTED_KEY, mPosition);
         }
@@ -115,13 +125,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         inflater.inflate(R.menu.forecastfragment, menu);
     }
 
-    // runs the fetchWeatherTask to get data from API and insert into db, has nothing to do with data shown to user via adapter and listview
+    // asks the sync service to get data from API and insert into db, has nothing to do with data shown to user via adapter and listview
     private Void updateWeather()
     {
         String zipCode = Utility.getPreferredLocation(getActivity());
-        FetchWeatherTask fetch = new FetchWeatherTask(getActivity());
-        // runs onBackground() to get json data from API and then pass to json-parser to send to db through URI
-        fetch.execute(zipCode);
+        // the user asked for it, so fetch even if the stored forecast is still fresh
+        WeatherSyncService.startSync(getActivity(), zipCode, true);
         return null;
     }
 
@@ -145,29 +154,24 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         ArrayList<String> weekForecast = new ArrayList<String>();
 
-        mForecastAdapter = new ForecastAdapter(getActivity(), null, 0);
-        mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
-
-
-        mListView = (ListView) rootView.findViewById(R.id.listview_forecast);
-        mListView.setAdapter(mForecastAdapter);
-
-        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener()
+        mForecastAdapter = new ForecastAdapter(getActivity(), new ForecastAdapter.OnRowClickListener()
         {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l)
+            public void onRowClick(ForecastRow row, int position)
             {
-                Cursor cursor = mForecastAdapter.getCursor();
-                if (cursor != null && cursor.moveToPosition(position))
-                {
-                    String dateString = cursor.getString(COL_WEATHER_DATE);
-                    ((Callback) getActivity()).onItemSelected(dateString);
-                    //Intent intent = new Intent(getActivity(), DetailActivity.class).putExtra(DetailActivity.DATE_KEY, dateString);
-                    //startActivity(intent);
-                }
+                ((Callback) getActivity()).onItemSelected(row.date);
+                //Intent intent = new Intent(getActivity(), DetailActivity.class).putExtra(DetailActivity.DATE_KEY, dateString);
+                //startActivity(intent);
                 mPosition = position;
             }
         });
+        mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
+
+
+        mRecyclerView = (RecyclerView) rootView.findViewById(R.id.recyclerview_forecast);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mRecyclerView.setAdapter(mForecastAdapter);
+        mRestorePosition = true;
 
         if (savedInstanceState != null && savedInstanceState.containsKey(SELECTED_KEY))
         {
@@ -179,53 +183,56 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     // ?? creates the right URI to fetch weather through content provider and ?? then does that
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args)
+    public Loader<ForecastRow[]> onCreateLoader(int id, Bundle args)
     {
         // This is called when a new Loader needs to be created.  This
         // fragment only uses one loader, so we don't care about checking the id.
 
-        // To only show current and future dates, get the String representation for today,
+        // To only show current and future dates, get the day number of today,
         // and filter the query to return weather only for dates after or including today.
         // Only return data after today.
-        String startDate = WeatherContract.getDbDateString(new Date());
+        long startDate = WeatherContract.getDbDay(System.currentTimeMillis());
 
         // Sort order:  Ascending, by date.
-        String sortOrder = WeatherEntry.COLUMN_DATETEXT + " ASC";
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
 
         mLocation = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherEntry.buildWeatherLocationWithStartDate(
                 mLocation, startDate);
 
-        // Now create and return a CursorLoader that will take care of
-        // creating a Cursor for the data being displayed.
-        return new CursorLoader(
+        // The loader reads the cursor into ready to show rows off the UI thread
+        return new ForecastLoader(
                 getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
-                null,
-                null,
                 sortOrder
         );
     }
 
-    // when the new data loaded through content provider, it swaps new data to mForecastFragment,
-    // so fresh data will be shown in listView(list shown to user)
+    // when the new data loaded through content provider, it swaps new rows to mForecastAdapter,
+    // so fresh data will be shown in the list (list shown to user)
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data)
+    public void onLoadFinished(Loader<ForecastRow[]> loader, ForecastRow[] data)
     {
-        mForecastAdapter.swapCursor(data);
+        mForecastAdapter.swapRows(data);
+        ForecastRowStore.publish(mLocation, data);
 
-        if (mPosition != ListView.INVALID_POSITION)
+        if (mRestorePosition && data != null && data.length > 0)
         {
-            mListView.smoothScrollToPosition(mPosition);
+            mRestorePosition = false;
+            if (mPosition != RecyclerView.NO_POSITION && mPosition < data.length)
+            {
+                mRecyclerView.scrollToPosition(mPosition);
+                mForecastAdapter.setSelectedPosition(mPosition);
+            }
         }
     }
 
     // ?? when is is called? adds null data to mForecastFragment
     @Override
-    public void onLoaderReset(Loader<Cursor> loader)
+    public void onLoaderReset(Loader<ForecastRow[]> loader)
     {
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapRows(null);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ * <p/>
+ * Instead of reading the whole response into a String and building a JSONObject tree out of it,
+ * this walks the stream token by token and hands every day to the {@link Listener} as soon as it
+ * is complete, so only one day of the forecast is held in memory at a time. This is the decoder
+ * used for anything that isn't one of our own compact formats.
+ */
+public class ForecastJsonParser implements ForecastDecoder
+{
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_COORD_LAT = "lat";
+    private static final String OWM_COORD_LONG = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // Bits used to make sure every field we store was present in a day object.
+    private static final int HAS_DATETIME = 1;
+    private static final int HAS_PRESSURE = 1 << 1;
+    private static final int HAS_HUMIDITY = 1 << 2;
+    private static final int HAS_WINDSPEED = 1 << 3;
+    private static final int HAS_WIND_DIRECTION = 1 << 4;
+    private static final int HAS_MAX = 1 << 5;
+    private static final int HAS_MIN = 1 << 6;
+    private static final int HAS_DESCRIPTION = 1 << 7;
+    private static final int HAS_WEATHER_ID = 1 << 8;
+    private static final int HAS_ALL_DAY_FIELDS = (1 << 9) - 1;
+
+    public static final String CONTENT_TYPE = "application/json";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public String getContentType()
+    {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void decode(InputStream in, Listener listener) throws IOException, JSONException
+    {
+        // JSON is UTF-8 (RFC 4627), whatever the platform default charset is
+        parse(new BufferedReader(new InputStreamReader(in, UTF_8)), listener);
+    }
+
+    /**
+     * Parses a daily forecast response from the given reader. The reader is not closed.
+     */
+    public void parse(Reader in, Listener listener) throws IOException, JSONException
+    {
+        JsonReader reader = new JsonReader(in);
+        try
+        {
+            parseForecast(reader, listener);
+        } catch (IllegalStateException e)
+        {
+            // JsonReader throws this when a token isn't of the expected type
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e)
+        {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private void parseForecast(JsonReader reader, Listener listener) throws IOException, JSONException
+    {
+        boolean cityFound = false;
+        // Only used if the list comes before the city, so the listener still gets the city first.
+        List<ContentValues> pendingDays = null;
+
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name))
+            {
+                parseCity(reader, listener);
+                cityFound = true;
+                if (pendingDays != null)
+                {
+                    for (ContentValues day : pendingDays)
+                    {
+                        listener.onDay(day);
+                    }
+                    pendingDays = null;
+                }
+            } else if (OWM_LIST.equals(name))
+            {
+                reader.beginArray();
+                while (reader.hasNext())
+                {
+                    ContentValues day = parseDay(reader);
+                    if (cityFound)
+                    {
+                        listener.onDay(day);
+                    } else
+                    {
+                        if (pendingDays == null)
+                        {
+                            pendingDays = new ArrayList<ContentValues>();
+                        }
+                        pendingDays.add(day);
+                    }
+                }
+                reader.endArray();
+            } else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!cityFound)
+        {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+    }
+
+    private void parseCity(JsonReader reader, Listener listener) throws IOException, JSONException
+    {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean coordFound = false;
+
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name))
+            {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name))
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    String coordName = reader.nextName();
+                    if (OWM_COORD_LAT.equals(coordName))
+                    {
+                        lat = reader.nextDouble();
+                    } else if (OWM_COORD_LONG.equals(coordName))
+                    {
+                        lon = reader.nextDouble();
+                    } else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                coordFound = true;
+            } else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null)
+        {
+            throw new JSONException("No value for " + OWM_CITY_NAME);
+        }
+        if (!coordFound)
+        {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+        listener.onCity(cityName, lat, lon);
+    }
+
+    private ContentValues parseDay(JsonReader reader) throws IOException, JSONException
+    {
+        long dateTime = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        String description = null;
+        int weatherId = 0;
+        int found = 0;
+
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name))
+            {
+                dateTime = reader.nextLong();
+                found |= HAS_DATETIME;
+            } else if (OWM_PRESSURE.equals(name))
+            {
+                pressure = reader.nextDouble();
+                found |= HAS_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name))
+            {
+                humidity = reader.nextInt();
+                found |= HAS_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name))
+            {
+                windSpeed = reader.nextDouble();
+                found |= HAS_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name))
+            {
+                windDirection = reader.nextDouble();
+                found |= HAS_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name))
+            {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName))
+                    {
+                        high = reader.nextDouble();
+                        found |= HAS_MAX;
+                    } else if (OWM_MIN.equals(tempName))
+                    {
+                        low = reader.nextDouble();
+                        found |= HAS_MIN;
+                    } else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name))
+            {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext())
+                {
+                    if (!first || reader.peek() != JsonToken.BEGIN_OBJECT)
+                    {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext())
+                    {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName))
+                        {
+                            description = reader.nextString();
+                            found |= HAS_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName))
+                        {
+                            weatherId = reader.nextInt();
+                            found |= HAS_WEATHER_ID;
+                        } else
+                        {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (found != HAS_ALL_DAY_FIELDS)
+        {
+            throw new JSONException("Incomplete day in forecast list, found fields mask " + found);
+        }
+
+        return ForecastDecoders.createWeatherValues(dateTime, pressure, humidity, windSpeed, windDirection,
+                high, low, description, weatherId);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Loads the forecast of a location as {@link ForecastRow}s.
+ * <p/>
+ * Works like a CursorLoader, except the cursor is converted to row models (see
+ * {@link ForecastRowCache}) and closed on the loader's thread, so the list never touches a
+ * cursor. Reloads when anything under the uri changes.
+ */
+public class ForecastLoader extends AsyncTaskLoader<ForecastRow[]>
+{
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSortOrder;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private ForecastRow[] mRows;
+    private boolean mObserving;
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String sortOrder)
+    {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public ForecastRow[] loadInBackground()
+    {
+        Cursor cursor = getContext().getContentResolver().query(mUri, mProjection, null, null, mSortOrder);
+        if (cursor == null)
+        {
+            return new ForecastRow[0];
+        }
+        try
+        {
+            return ForecastRowCache.toRows(getContext(), cursor);
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(ForecastRow[] rows)
+    {
+        if (isReset())
+        {
+            return;
+        }
+        mRows = rows;
+        if (isStarted())
+        {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading()
+    {
+        if (!mObserving)
+        {
+            // the cursor is closed right after loading, so the loader watches the uri itself
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mRows != null)
+        {
+            deliverResult(mRows);
+        }
+        if (takeContentChanged() || mRows == null)
+        {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading()
+    {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset()
+    {
+        super.onReset();
+        onStopLoading();
+        mRows = null;
+        if (mObserving)
+        {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+    }
+}
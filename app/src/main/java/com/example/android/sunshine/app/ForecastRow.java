@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app;
+
+/**
+ * One row of the forecast list, ready to be put on screen.
+ * <p/>
+ * Everything the list shows is formatted when the row is made, on the loader's thread, so
+ * binding a row is only a matter of setting the fields on the views. The raw values are kept
+ * to tell whether a cached row still matches what is in the database, and they include what
+ * the detail pane shows, so it can be served from {@link ForecastRowStore}.
+ */
+public final class ForecastRow
+{
+    public final long id;
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+    public final double humidity;
+    public final double pressure;
+    public final double windSpeed;
+    public final double degrees;
+    // The day the labels were made on, "Today" and "Tomorrow" move at midnight
+    public final long today;
+
+    public final int iconResId;
+    public final int artResId;
+    public final String dateLabel;
+    public final String highLabel;
+    public final String lowLabel;
+
+    ForecastRow(long id, long date, int weatherId, String description, double high, double low,
+                double humidity, double pressure, double windSpeed, double degrees, long today,
+                int iconResId, int artResId, String dateLabel, String highLabel, String lowLabel)
+    {
+        this.id = id;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.high = high;
+        this.low = low;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        this.windSpeed = windSpeed;
+        this.degrees = degrees;
+        this.today = today;
+        this.iconResId = iconResId;
+        this.artResId = artResId;
+        this.dateLabel = dateLabel;
+        this.highLabel = highLabel;
+        this.lowLabel = lowLabel;
+    }
+
+    /**
+     * True if this row was made from the given values, so its labels can be reused.
+     */
+    boolean matches(long id, int weatherId, String description, double high, double low,
+                    double humidity, double pressure, double windSpeed, double degrees, long today)
+    {
+        return this.id == id
+                && this.weatherId == weatherId
+                && this.high == high
+                && this.low == low
+                && this.humidity == humidity
+                && this.pressure == pressure
+                && this.windSpeed == windSpeed
+                && this.degrees == degrees
+                && this.today == today
+                && (this.description == null ? description == null : this.description.equals(description));
+    }
+
+    /**
+     * True if the row shows the same thing as another one, so its view doesn't need a rebind.
+     */
+    boolean hasSameContents(ForecastRow other)
+    {
+        return this == other
+                || (id == other.id
+                && iconResId == other.iconResId
+                && artResId == other.artResId
+                && dateLabel.equals(other.dateLabel)
+                && highLabel.equals(other.highLabel)
+                && lowLabel.equals(other.lowLabel)
+                && (description == null ? other.description == null : description.equals(other.description)));
+    }
+}
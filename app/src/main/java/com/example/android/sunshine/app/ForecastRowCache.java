@@ -0,0 +1,82 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.util.LruCache;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Turns forecast cursors into arrays of {@link ForecastRow}s.
+ * <p/>
+ * Rows are cached by location, units, locale, time zone and day, so a reload after a sync only
+ * formats the days that actually changed and switching back to a location or unit seen before
+ * formats nothing, while a new language or zone never shows the labels made for the old one.
+ * Meant to be called off the UI thread.
+ */
+public final class ForecastRowCache
+{
+    // Enough for a few locations with 16 days each, in both units
+    private static final int MAX_ROWS = 256;
+
+    private static final LruCache<String, ForecastRow> sRows = new LruCache<String, ForecastRow>(MAX_ROWS);
+
+    private ForecastRowCache()
+    {
+    }
+
+    /**
+     * Reads every row of a cursor with the {@link ForecastFragment} columns into row models.
+     * The cursor is left open.
+     */
+    public static ForecastRow[] toRows(Context context, Cursor cursor)
+    {
+        boolean isMetric = SettingsSnapshot.get(context).isMetric();
+        long today = DayFormatter.getInstance(context).getToday();
+        // the labels are in the language and for the zone they were made in
+        String labels = "|" + Locale.getDefault() + "|" + TimeZone.getDefault().getID() + "|";
+
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++)
+        {
+            long id = cursor.getLong(ForecastFragment.COL_WEATHER_ENTRY_ID);
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_ID);
+            String description = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
+            double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            double humidity = cursor.getDouble(ForecastFragment.COL_WEATHER_HUMIDITY);
+            double pressure = cursor.getDouble(ForecastFragment.COL_WEATHER_PRESSURE);
+            double windSpeed = cursor.getDouble(ForecastFragment.COL_WEATHER_WIND_SPEED);
+            double degrees = cursor.getDouble(ForecastFragment.COL_WEATHER_DEGREES);
+
+            String key = cursor.getString(ForecastFragment.COL_LOCATION_SETTING)
+                    + (isMetric ? "|metric" : "|imperial") + labels + date;
+            ForecastRow row = sRows.get(key);
+            if (row == null || !row.matches(id, weatherId, description, high, low,
+                    humidity, pressure, windSpeed, degrees, today))
+            {
+                row = new ForecastRow(id, date, weatherId, description, high, low,
+                        humidity, pressure, windSpeed, degrees, today,
+                        Utility.getIconResourceForWeatherCondition(weatherId),
+                        Utility.getArtResourceForWeatherCondition(weatherId),
+                        Utility.getFriendlyDayString(context, date),
+                        Utility.formatTemperature(context, high, isMetric),
+                        Utility.formatTemperature(context, low, isMetric));
+                sRows.put(key, row);
+            }
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Drops every cached row.
+     */
+    public static void clear()
+    {
+        sRows.evictAll();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The item changes that turn one list of {@link ForecastRow}s into another.
+ * <p/>
+ * Both lists come from the provider sorted by date with one row per day, so the two can be
+ * merged in a single pass: a day only in the old list is a removal, a day only in the new list
+ * an insertion, and a day in both whose row looks different a change. Consecutive operations
+ * of the same kind are merged into ranges. Cheap enough for the UI thread, but it is computed
+ * on a background thread anyway so a reload never costs a frame.
+ */
+public final class ForecastRowDiff
+{
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    // Operations in the order they must be applied, as (type, position, count) triples
+    private final List<int[]> mOps = new ArrayList<int[]>();
+
+    private ForecastRowDiff()
+    {
+    }
+
+    /**
+     * Computes the changes from oldRows to newRows, both sorted by date.
+     */
+    public static ForecastRowDiff compute(ForecastRow[] oldRows, ForecastRow[] newRows)
+    {
+        ForecastRowDiff diff = new ForecastRowDiff();
+        int i = 0;
+        int j = 0;
+        // position in the list as it is after the operations so far
+        int position = 0;
+        while (i < oldRows.length || j < newRows.length)
+        {
+            if (j == newRows.length || (i < oldRows.length && oldRows[i].date < newRows[j].date))
+            {
+                diff.add(REMOVE, position);
+                i++;
+            } else if (i == oldRows.length || newRows[j].date < oldRows[i].date)
+            {
+                diff.add(INSERT, position);
+                position++;
+                j++;
+            } else
+            {
+                if (oldRows[i].id != newRows[j].id)
+                {
+                    // same day but a different row, the stable id has to change with it
+                    diff.add(REMOVE, position);
+                    diff.add(INSERT, position);
+                } else if (!oldRows[i].hasSameContents(newRows[j]))
+                {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    private void add(int type, int position)
+    {
+        if (!mOps.isEmpty())
+        {
+            int[] last = mOps.get(mOps.size() - 1);
+            if (last[0] == type)
+            {
+                // removals stay at the same position, the others follow each other
+                int next = type == REMOVE ? last[1] : last[1] + last[2];
+                if (position == next)
+                {
+                    last[2]++;
+                    return;
+                }
+            }
+        }
+        mOps.add(new int[]{type, position, 1});
+    }
+
+    public boolean isEmpty()
+    {
+        return mOps.isEmpty();
+    }
+
+    /**
+     * Number of item changes, after merging them into ranges.
+     */
+    public int size()
+    {
+        return mOps.size();
+    }
+
+    /**
+     * Sends the changes to an adapter that already holds the new rows.
+     */
+    public void dispatchTo(RecyclerView.Adapter adapter)
+    {
+        for (int[] op : mOps)
+        {
+            switch (op[0])
+            {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(op[1], op[2]);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(op[1], op[2]);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(op[1], op[2]);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int[] op : mOps)
+        {
+            if (builder.length() > 0)
+            {
+                builder.append(", ");
+            }
+            builder.append(op[0] == INSERT ? "insert " : op[0] == REMOVE ? "remove " : "change ")
+                    .append(op[1]).append('+').append(op[2]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.android.sunshine.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The forecast rows the list loaded last, shared in process with the detail views.
+ * <p/>
+ * {@link ForecastFragment} loads every column the detail pane shows along with the list and
+ * publishes the rows here, so opening or switching days in {@link DetailFragment} is served
+ * from memory instead of another query for the same row. Detail views listen for new rows to
+ * follow syncs. Only used from the main thread.
+ */
+public final class ForecastRowStore
+{
+    public interface Listener
+    {
+        void onRowsChanged();
+    }
+
+    private static String sLocationSetting;
+    private static ForecastRow[] sRows;
+    private static final List<Listener> sListeners = new ArrayList<Listener>();
+
+    private ForecastRowStore()
+    {
+    }
+
+    /**
+     * Replaces the stored rows with the days of a location, null to drop them.
+     */
+    public static void publish(String locationSetting, ForecastRow[] rows)
+    {
+        sLocationSetting = locationSetting;
+        sRows = rows;
+        // a copy, a listener may unregister itself while being told
+        for (Listener listener : new ArrayList<Listener>(sListeners))
+        {
+            listener.onRowsChanged();
+        }
+    }
+
+    /**
+     * The row of a day of a location, null if the last rows published aren't of that location or
+     * don't have that day.
+     */
+    public static ForecastRow get(String locationSetting, long date)
+    {
+        ForecastRow[] rows = sRows;
+        if (rows == null || locationSetting == null || !locationSetting.equals(sLocationSetting))
+        {
+            return null;
+        }
+        for (ForecastRow row : rows)
+        {
+            if (row.date == date)
+            {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    public static void addListener(Listener listener)
+    {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener)
+    {
+        sListeners.remove(listener);
+    }
+}
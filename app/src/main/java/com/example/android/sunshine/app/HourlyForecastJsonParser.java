@@ -0,0 +1,279 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Pull parser for the OpenWeatherMap 3-hourly forecast response (forecast?q=...).
+ * <p/>
+ * Works like {@link ForecastJsonParser}, except that {@link ForecastDecoder.Listener#onDay} is
+ * called once per forecast slot with the values of an {@link HourlyEntry} row (without the
+ * location key). The city must come before the list, which is how OWM sends it.
+ */
+public class HourlyForecastJsonParser
+{
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_COORD_LAT = "lat";
+    private static final String OWM_COORD_LONG = "lon";
+
+    private static final String OWM_LIST = "list";
+    private static final String OWM_DATETIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object.
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMP = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind is a child object too.
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // Bits used to make sure every field we store was present in a slot object.
+    private static final int HAS_DATETIME = 1;
+    private static final int HAS_TEMP = 1 << 1;
+    private static final int HAS_PRESSURE = 1 << 2;
+    private static final int HAS_HUMIDITY = 1 << 3;
+    private static final int HAS_WINDSPEED = 1 << 4;
+    private static final int HAS_WIND_DIRECTION = 1 << 5;
+    private static final int HAS_DESCRIPTION = 1 << 6;
+    private static final int HAS_WEATHER_ID = 1 << 7;
+    private static final int HAS_ALL_SLOT_FIELDS = (1 << 8) - 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void decode(InputStream in, ForecastDecoder.Listener listener) throws IOException, JSONException
+    {
+        parse(new BufferedReader(new InputStreamReader(in, UTF_8)), listener);
+    }
+
+    /**
+     * Parses a 3-hourly forecast response from the given reader. The reader is not closed.
+     */
+    public void parse(Reader in, ForecastDecoder.Listener listener) throws IOException, JSONException
+    {
+        JsonReader reader = new JsonReader(in);
+        try
+        {
+            parseForecast(reader, listener);
+        } catch (IllegalStateException e)
+        {
+            // JsonReader throws this when a token isn't of the expected type
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e)
+        {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private void parseForecast(JsonReader reader, ForecastDecoder.Listener listener) throws IOException, JSONException
+    {
+        boolean cityFound = false;
+
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name))
+            {
+                parseCity(reader, listener);
+                cityFound = true;
+            } else if (OWM_LIST.equals(name))
+            {
+                if (!cityFound)
+                {
+                    throw new JSONException(OWM_LIST + " before " + OWM_CITY);
+                }
+                reader.beginArray();
+                while (reader.hasNext())
+                {
+                    listener.onDay(parseSlot(reader));
+                }
+                reader.endArray();
+            } else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!cityFound)
+        {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+    }
+
+    private void parseCity(JsonReader reader, ForecastDecoder.Listener listener) throws IOException, JSONException
+    {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean coordFound = false;
+
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name))
+            {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name))
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    String coordName = reader.nextName();
+                    if (OWM_COORD_LAT.equals(coordName))
+                    {
+                        lat = reader.nextDouble();
+                    } else if (OWM_COORD_LONG.equals(coordName))
+                    {
+                        lon = reader.nextDouble();
+                    } else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                coordFound = true;
+            } else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null)
+        {
+            throw new JSONException("No value for " + OWM_CITY_NAME);
+        }
+        if (!coordFound)
+        {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+        listener.onCity(cityName, lat, lon);
+    }
+
+    private ContentValues parseSlot(JsonReader reader) throws IOException, JSONException
+    {
+        ContentValues slotValues = new ContentValues();
+        int found = 0;
+
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name))
+            {
+                slotValues.put(HourlyEntry.COLUMN_TIME, reader.nextLong());
+                found |= HAS_DATETIME;
+            } else if (OWM_MAIN.equals(name))
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMP.equals(mainName))
+                    {
+                        slotValues.put(HourlyEntry.COLUMN_TEMP, reader.nextDouble());
+                        found |= HAS_TEMP;
+                    } else if (OWM_PRESSURE.equals(mainName))
+                    {
+                        slotValues.put(HourlyEntry.COLUMN_PRESSURE, reader.nextDouble());
+                        found |= HAS_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName))
+                    {
+                        slotValues.put(HourlyEntry.COLUMN_HUMIDITY, reader.nextDouble());
+                        found |= HAS_HUMIDITY;
+                    } else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name))
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName))
+                    {
+                        slotValues.put(HourlyEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+                        found |= HAS_WINDSPEED;
+                    } else if (OWM_WIND_DIRECTION.equals(windName))
+                    {
+                        slotValues.put(HourlyEntry.COLUMN_DEGREES, reader.nextDouble());
+                        found |= HAS_WIND_DIRECTION;
+                    } else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name))
+            {
+                // Only the first element of the "weather" array is used, like for the daily forecast
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext())
+                {
+                    if (!first || reader.peek() != JsonToken.BEGIN_OBJECT)
+                    {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext())
+                    {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName))
+                        {
+                            slotValues.put(HourlyEntry.COLUMN_SHORT_DESC, reader.nextString());
+                            found |= HAS_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName))
+                        {
+                            slotValues.put(HourlyEntry.COLUMN_WEATHER_ID, reader.nextInt());
+                            found |= HAS_WEATHER_ID;
+                        } else
+                        {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (found != HAS_ALL_SLOT_FIELDS)
+        {
+            throw new JSONException("Incomplete slot in forecast list, found fields mask " + found);
+        }
+        return slotValues;
+    }
+}
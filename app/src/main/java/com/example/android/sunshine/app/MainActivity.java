@@ -44,6 +44,13 @@ public class MainActivity extends ActionBarActivity implements ForecastFragment.
         }
         ForecastFragment forecastFragment = ((ForecastFragment) getSupportFragmentManager().findFragmentById((R.id.fragment_forecast)));
         forecastFragment.setUseTodayLayout(!mTwoPane);
+
+        // keep the forecast up to date in the background, and catch up now if it's stale
+        WeatherSyncService.ensureSyncScheduled(this);
+        if (savedInstanceState == null)
+        {
+            WeatherSyncService.startSync(this, Utility.getPreferredLocation(this), false);
+        }
     }
 
     private void showMap()
@@ -81,12 +88,12 @@ public class MainActivity extends ActionBarActivity implements ForecastFragment.
     }
 
     @Override
-    public void onItemSelected(String date)
+    public void onItemSelected(long date)
     {
         if(mTwoPane == true)
         {
             Bundle args = new Bundle();
-            args.putString(DetailActivity.DATE_KEY, date);
+            args.putLong(DetailActivity.DATE_KEY, date);
 
             DetailFragment fragment = new DetailFragment();
             fragment.setArguments(args);
@@ -2,6 +2,7 @@ package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -11,9 +12,9 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 
-public class SettingsActivity extends PreferenceActivity implements Preference.OnPreferenceChangeListener
+public class SettingsActivity extends PreferenceActivity
+        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener
 {
-    private boolean mBindingPreference;
 
     @Override
     public void onCreate(Bundle savedInstanceState)
@@ -26,6 +27,21 @@ public class SettingsActivity extends PreferenceActivity implements Preference.O
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_sync_interval_key)));
+    }
+
+    @Override
+    protected void onResume()
+    {
+        super.onResume();
+        PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(this);
+    }
+
+    @Override
+    protected void onPause()
+    {
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
+        super.onPause();
     }
 
     /**
@@ -40,15 +56,10 @@ public class SettingsActivity extends PreferenceActivity implements Preference.O
 
         // Trigger the listener immediately with the preference's
         // current value.
-
-        // for onPreferenceChange() to know if a value is changed or it's
-        // just called to fill the initial values for details, we load mBindingPreference
-        mBindingPreference = true;
         onPreferenceChange(preference,
                 PreferenceManager
                         .getDefaultSharedPreferences(preference.getContext())
                         .getString(preference.getKey(), ""));
-        mBindingPreference = false;
     }
 
     @Override
@@ -74,28 +85,34 @@ public class SettingsActivity extends PreferenceActivity implements Preference.O
             // For other preferences, set the summary to the value's simple string representation.
             preference.setSummary(stringValue);
         }
+        return true;
+    }
+
+    // Called once a changed value is saved (onPreferenceChange runs before that), so the
+    // snapshot read here already has the new value.
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key)
+    {
+        SettingsSnapshot.invalidate();
 
-        // are we starting the preference activity? or preference is actually changed/edited with same value??
-        if (!mBindingPreference)
+        // if it is the location that is changed
+        if (key.equals(getString(R.string.pref_location_key)))
         {
-            // if it is the location that is changed
-            if (preference.getKey().equals(getString(R.string.pref_location_key)))
-            {
-                // a new FetchWeatherTask is created and data for new location is inserted to db
-                FetchWeatherTask weatherTask = new FetchWeatherTask(this);
-                String location = value.toString();
-                weatherTask.execute(location);
-                // the execution process updates the db values and notifies code of  new changes (for content listeners)
-            }
-            //  other things have changed? ( Imperial or Metric )
-            else
-            {
-                // notify code that the unit is changed so temperature unit should be adjusted
-                getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-            }
+            // the sync service fetches the new location and inserts it to db
+            WeatherSyncService.startSync(this, SettingsSnapshot.get(this).getLocationSetting(), false);
+            // the sync updates the db values and notifies code of  new changes (for content listeners)
+        }
+        // the periodic sync has to be rescheduled with the new interval
+        else if (key.equals(getString(R.string.pref_sync_interval_key)))
+        {
+            WeatherSyncService.scheduleSync(this);
+        }
+        //  other things have changed? ( Imperial or Metric )
+        else if (key.equals(getString(R.string.pref_units_key)))
+        {
+            // notify code that the unit is changed so temperature unit should be adjusted
+            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
         }
-
-        return true;
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
@@ -0,0 +1,80 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Immutable copy of the user's settings.
+ * <p/>
+ * The settings are read on every bind of a forecast row, so instead of resolving the preference
+ * keys and going through SharedPreferences each time, they are read once into a snapshot that
+ * is kept until {@link #invalidate()} is called. SettingsActivity does that from its
+ * OnSharedPreferenceChangeListener, which is the only place the settings are changed.
+ */
+public final class SettingsSnapshot
+{
+    private static volatile SettingsSnapshot sSnapshot;
+
+    private final String mLocationSetting;
+    private final boolean mMetric;
+    private final long mSyncIntervalMinutes;
+
+    private SettingsSnapshot(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationSetting = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric)).equals(
+                context.getString(R.string.pref_units_metric));
+        mSyncIntervalMinutes = Long.parseLong(prefs.getString(
+                context.getString(R.string.pref_sync_interval_key),
+                context.getString(R.string.pref_sync_interval_default)));
+    }
+
+    /**
+     * Returns the current settings, reading them only if they changed since the last call.
+     */
+    public static SettingsSnapshot get(Context context)
+    {
+        SettingsSnapshot snapshot = sSnapshot;
+        if (snapshot != null)
+        {
+            return snapshot;
+        }
+        // Built under the same lock invalidate() takes: a snapshot read from the preferences
+        // before a change can't be stored after the change invalidated it.
+        synchronized (SettingsSnapshot.class)
+        {
+            if (sSnapshot == null)
+            {
+                sSnapshot = new SettingsSnapshot(context.getApplicationContext());
+            }
+            return sSnapshot;
+        }
+    }
+
+    /**
+     * Drops the snapshot, the next {@link #get} reads the preferences again.
+     */
+    public static synchronized void invalidate()
+    {
+        sSnapshot = null;
+    }
+
+    public String getLocationSetting()
+    {
+        return mLocationSetting;
+    }
+
+    public boolean isMetric()
+    {
+        return mMetric;
+    }
+
+    public long getSyncIntervalMinutes()
+    {
+        return mSyncIntervalMinutes;
+    }
+}
@@ -1,129 +1,39 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 
 import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 
 public class Utility
 {
 
-    public static final String DATE_FORMAT = "yyyyMMdd";
-
-    public static String getFriendlyDayString(Context context, String dateStr)
+    // The day labels are cached by DayFormatter, these stay for the existing callers.
+    public static String getFriendlyDayString(Context context, long day)
     {
-        // The day string for forecast uses the following logic:
-        // For today: "Today, June 8"
-        // For tomorrow:  "Tomorrow"
-        // For the next 5 days: "Wednesday" (just the day name)
-        // For all days after that: "Mon Jun 8"
-
-        Date todayDate = new Date();
-        String todayStr = WeatherContract.getDbDateString(todayDate);
-        Date inputDate = WeatherContract.getDateFromDb(dateStr);
-
-        // If the date we're building the String for is today's date, the format
-        // is "Today, June 24"
-        if (todayStr.equals(dateStr))
-        {
-            String today = context.getString(R.string.today);
-            return context.getString(
-                    R.string.format_full_friendly_date,
-                    today,
-                    getFormattedMonthDay(context, dateStr));
-        } else
-        {
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(todayDate);
-            cal.add(Calendar.DATE, 7);
-            String weekFutureString = WeatherContract.getDbDateString(cal.getTime());
-
-            if (dateStr.compareTo(weekFutureString) < 0)
-            {
-                // If the input date is less than a week in the future, just return the day name.
-                return getDayName(context, dateStr);
-            } else
-            {
-                // Otherwise, use the form "Mon Jun 3"
-                SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-                return shortenedDateFormat.format(inputDate);
-            }
-        }
+        return DayFormatter.getInstance(context).getFriendlyDayString(day);
     }
 
-    public static String getDayName(Context context, String dateStr)
+    public static String getDayName(Context context, long day)
     {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        try
-        {
-            Date inputDate = dbDateFormat.parse(dateStr);
-            Date todayDate = new Date();
-            // If the date is today, return the localized version of "Today" instead of the actual
-            // day name.
-            if (WeatherContract.getDbDateString(todayDate).equals(dateStr))
-            {
-                return context.getString(R.string.today);
-            } else
-            {
-                // If the date is set for tomorrow, the format is "Tomorrow".
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(todayDate);
-                cal.add(Calendar.DATE, 1);
-                Date tomorrowDate = cal.getTime();
-                if (WeatherContract.getDbDateString(tomorrowDate).equals(
-                        dateStr))
-                {
-                    return context.getString(R.string.tomorrow);
-                } else
-                {
-                    // Otherwise, the format is just the day of the week (e.g "Wednesday".
-                    SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-                    return dayFormat.format(inputDate);
-                }
-            }
-        } catch (ParseException e)
-        {
-            e.printStackTrace();
-            // It couldn't process the date correctly.
-            return "";
-        }
+        return DayFormatter.getInstance(context).getDayName(day);
     }
 
-    public static String getFormattedMonthDay(Context context, String dateStr)
+    public static String getFormattedMonthDay(Context context, long day)
     {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        try
-        {
-            Date inputDate = dbDateFormat.parse(dateStr);
-            SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-            String monthDayString = monthDayFormat.format(inputDate);
-            return monthDayString;
-        } catch (ParseException e)
-        {
-            e.printStackTrace();
-            return null;
-        }
+        return DayFormatter.getInstance(context).getFormattedMonthDay(day);
     }
 
+    // Both come from the SettingsSnapshot, no preference lookup unless the settings changed
     public static String getPreferredLocation(Context context)
     {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key), context.getString(R.string.pref_location_default));
+        return SettingsSnapshot.get(context).getLocationSetting();
     }
 
     public static boolean isMetric(Context context)
     {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_units_key),
-                context.getString(R.string.pref_units_metric)).equals(
-                context.getString(R.string.pref_units_metric));
+        return SettingsSnapshot.get(context).isMetric();
     }
 
     static String formatTemperature(Context context, double temperature, boolean isMetric)
@@ -139,10 +49,9 @@ public class Utility
         return context.getString(R.string.format_temperature, temp);
     }
 
-    static String formatDate(String dateString)
+    static String formatDate(long day)
     {
-        Date date = WeatherContract.getDateFromDb(dateString);
-        return DateFormat.getDateInstance().format(date);
+        return DateFormat.getDateInstance().format(WeatherContract.getDateFromDb(day));
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees)
@@ -198,43 +107,7 @@ public class Utility
      */
     public static int getIconResourceForWeatherCondition(int weatherId)
     {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232)
-        {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321)
-        {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504)
-        {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511)
-        {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531)
-        {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622)
-        {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761)
-        {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781)
-        {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800)
-        {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801)
-        {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804)
-        {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        return WeatherConditions.getIcon(weatherId);
     }
 
     /**
@@ -246,42 +119,6 @@ public class Utility
      */
     public static int getArtResourceForWeatherCondition(int weatherId)
     {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232)
-        {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321)
-        {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504)
-        {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511)
-        {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531)
-        {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622)
-        {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 701 && weatherId <= 761)
-        {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781)
-        {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800)
-        {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801)
-        {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804)
-        {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        return WeatherConditions.getArt(weatherId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+
+/**
+ * Maps OpenWeatherMap condition ids to the icon and art shown for them.
+ * <p/>
+ * The mapping is written down once, as ranges in {@link #CONDITIONS}, and expanded into dense
+ * tables over the whole condition id space when the class loads, so a lookup is a bounds
+ * check and an array read. Icon and art come from the same row, so they can't disagree.
+ */
+public final class WeatherConditions
+{
+    /**
+     * Returned for ids without an icon or art.
+     */
+    public static final int NO_RESOURCE = -1;
+
+    // Based on weather code data found at:
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    // {first id, last id, icon, art}, the ranges must not overlap
+    private static final int[][] CONDITIONS = {
+            {200, 232, R.drawable.ic_storm, R.drawable.art_storm},
+            {300, 321, R.drawable.ic_light_rain, R.drawable.art_light_rain},
+            {500, 504, R.drawable.ic_rain, R.drawable.art_rain},
+            {511, 511, R.drawable.ic_snow, R.drawable.art_snow},
+            {520, 531, R.drawable.ic_rain, R.drawable.art_rain},
+            {600, 622, R.drawable.ic_snow, R.drawable.art_snow},
+            {701, 761, R.drawable.ic_fog, R.drawable.art_fog},
+            {781, 781, R.drawable.ic_storm, R.drawable.art_storm},
+            {800, 800, R.drawable.ic_clear, R.drawable.art_clear},
+            {801, 801, R.drawable.ic_light_clouds, R.drawable.art_light_clouds},
+            {802, 804, R.drawable.ic_cloudy, R.drawable.art_clouds},
+    };
+
+    static final int MIN_ID = 200;
+    static final int MAX_ID = 804;
+
+    private static final int[] sIcons = new int[MAX_ID - MIN_ID + 1];
+    private static final int[] sArt = new int[MAX_ID - MIN_ID + 1];
+
+    static
+    {
+        Arrays.fill(sIcons, NO_RESOURCE);
+        Arrays.fill(sArt, NO_RESOURCE);
+        for (int[] condition : CONDITIONS)
+        {
+            for (int id = condition[0]; id <= condition[1]; id++)
+            {
+                if (sIcons[id - MIN_ID] != NO_RESOURCE)
+                {
+                    throw new IllegalStateException("Condition " + id + " is mapped twice");
+                }
+                sIcons[id - MIN_ID] = condition[2];
+                sArt[id - MIN_ID] = condition[3];
+            }
+        }
+    }
+
+    private WeatherConditions()
+    {
+    }
+
+    /**
+     * @return the icon of the condition, {@link #NO_RESOURCE} if it has none
+     */
+    public static int getIcon(int weatherId)
+    {
+        return weatherId >= MIN_ID && weatherId <= MAX_ID ? sIcons[weatherId - MIN_ID] : NO_RESOURCE;
+    }
+
+    /**
+     * @return the art of the condition, {@link #NO_RESOURCE} if it has none
+     */
+    public static int getArt(int weatherId)
+    {
+        return weatherId >= MIN_ID && weatherId <= MAX_ID ? sArt[weatherId - MIN_ID] : NO_RESOURCE;
+    }
+}
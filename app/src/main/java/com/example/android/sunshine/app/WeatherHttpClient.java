@@ -0,0 +1,123 @@
+package com.example.android.sunshine.app;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The one place HTTP connections to the weather servers are opened and given back.
+ * <p/>
+ * HttpURLConnection already keeps a pool of keep-alive sockets per host, but a connection only
+ * goes back into it if its body was read to the end and closed without calling
+ * {@link HttpURLConnection#disconnect()}. {@link #release} does that, so back-to-back fetches,
+ * including the parallel ones of a {@link WeatherRefreshEngine}, reuse sockets instead of paying
+ * for a TCP handshake each. Every connection also gets connect and read timeouts, so a dead
+ * server can't hang a sync forever.
+ */
+public final class WeatherHttpClient
+{
+    public static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    // Idle sockets kept per host, enough for every worker of a refresh to find one
+    public static final int MAX_IDLE_CONNECTIONS = WeatherRefreshEngine.DEFAULT_PARALLELISM;
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000L;
+    // A leftover body bigger than this isn't worth reading just to save a handshake
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final String LOG_TAG = WeatherHttpClient.class.getSimpleName();
+
+    private static final WeatherHttpClient sInstance = new WeatherHttpClient();
+
+    static
+    {
+        // The platform pool reads these when it is created, i.e. before the first connection of
+        // the process, which is why the client has to be the only way connections get opened.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", Long.toString(KEEP_ALIVE_MILLIS));
+    }
+
+    private WeatherHttpClient()
+    {
+    }
+
+    public static WeatherHttpClient getInstance()
+    {
+        return sInstance;
+    }
+
+    /**
+     * Opens a GET connection to the url with the client's timeouts set. Pass it to
+     * {@link #release} once the response was handled, or to {@link #abort} if it failed midway.
+     */
+    public HttpURLConnection open(URL url) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * Reads what is left of the response body and closes it, which hands the socket back to the
+     * pool. Falls back to {@link #abort} if that isn't possible.
+     */
+    public void release(HttpURLConnection connection)
+    {
+        InputStream body = null;
+        try
+        {
+            body = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (body != null && !drain(body))
+            {
+                abort(connection);
+            }
+        } catch (IOException e)
+        {
+            abort(connection);
+        } finally
+        {
+            if (body != null)
+            {
+                try
+                {
+                    body.close();
+                } catch (final IOException e)
+                {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the socket of a connection whose response wasn't read cleanly, so it is never reused.
+     */
+    public void abort(HttpURLConnection connection)
+    {
+        connection.disconnect();
+    }
+
+    // True if the stream was read to its end
+    private static boolean drain(InputStream in) throws IOException
+    {
+        byte[] buffer = new byte[1024];
+        int total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            total += read;
+            if (total > MAX_DRAIN_BYTES)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
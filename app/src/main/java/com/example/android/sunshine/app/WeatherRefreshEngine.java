@@ -0,0 +1,210 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the forecasts of many location settings at once.
+ * <p/>
+ * Locations are downloaded and parsed in parallel on a dedicated, bounded thread pool, then all
+ * the forecasts that changed are written with a single {@link ForecastFetcher#save(List)}, i.e.
+ * one provider transaction and one change notification for the whole refresh.
+ * {@link #refresh} blocks, so it has to be called off the main thread.
+ */
+public class WeatherRefreshEngine
+{
+    public static final int DEFAULT_PARALLELISM = 4;
+    private static final String LOG_TAG = WeatherRefreshEngine.class.getSimpleName();
+
+    private final ForecastFetcher mFetcher;
+    private final ExecutorService mExecutor;
+
+    public WeatherRefreshEngine(Context context)
+    {
+        this(new ForecastFetcher(context), DEFAULT_PARALLELISM);
+    }
+
+    public WeatherRefreshEngine(ForecastFetcher fetcher, int parallelism)
+    {
+        mFetcher = fetcher;
+        mExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                return new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "WeatherRefresh #" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Downloads the forecasts of the given location settings and stores the ones that changed.
+     * A location that fails doesn't stop the others, its error is in the report.
+     */
+    public Report refresh(Collection<String> locationSettings)
+    {
+        long start = System.nanoTime();
+
+        List<Future<LocationResult>> futures = new ArrayList<Future<LocationResult>>();
+        for (final String locationSetting : new LinkedHashSet<String>(locationSettings))
+        {
+            futures.add(mExecutor.submit(new Callable<LocationResult>()
+            {
+                @Override
+                public LocationResult call()
+                {
+                    LocationResult result = new LocationResult(locationSetting);
+                    long locationStart = System.nanoTime();
+                    try
+                    {
+                        result.forecast = mFetcher.download(locationSetting);
+                    } catch (Exception e)
+                    {
+                        result.error = e;
+                    }
+                    result.latencyMillis = (System.nanoTime() - locationStart) / 1000000;
+                    return result;
+                }
+            }));
+        }
+
+        Report report = new Report();
+        List<ForecastFetcher.Forecast> forecasts = new ArrayList<ForecastFetcher.Forecast>();
+        for (Future<LocationResult> future : futures)
+        {
+            LocationResult result;
+            try
+            {
+                result = future.get();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e)
+            {
+                // the task catches everything itself
+                throw new IllegalStateException(e.getCause());
+            }
+            report.results.add(result);
+            if (result.forecast != null)
+            {
+                forecasts.add(result.forecast);
+                report.wireBytes += result.forecast.wireBytes;
+                report.decodedBytes += result.forecast.decodedBytes;
+            } else
+            {
+                report.failures++;
+                Log.e(LOG_TAG, "Refreshing " + result.locationSetting + " failed", result.error);
+            }
+        }
+
+        if (!forecasts.isEmpty())
+        {
+            Bundle counts = mFetcher.save(forecasts);
+            report.insertedRows = counts.getInt(WeatherContract.EXTRA_INSERTED);
+            report.updatedRows = counts.getInt(WeatherContract.EXTRA_UPDATED);
+            report.unchangedRows = counts.getInt(WeatherContract.EXTRA_UNCHANGED);
+        }
+
+        report.totalMillis = (System.nanoTime() - start) / 1000000;
+        Log.v(LOG_TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Stops the worker threads. The engine can't be used afterwards.
+     */
+    public void shutdown()
+    {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Outcome of refreshing one location setting.
+     */
+    public static class LocationResult
+    {
+        public final String locationSetting;
+        // null if the location failed
+        public ForecastFetcher.Forecast forecast;
+        // why the location failed, null if it didn't
+        public Exception error;
+        // time spent downloading and parsing this location
+        public long latencyMillis;
+
+        LocationResult(String locationSetting)
+        {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    /**
+     * Outcome of a whole refresh.
+     */
+    public static class Report
+    {
+        public final List<LocationResult> results = new ArrayList<LocationResult>();
+        public int failures;
+        public int insertedRows;
+        public int updatedRows;
+        public int unchangedRows;
+        // Response bodies as transferred and after decompression, summed over the locations
+        public long wireBytes;
+        public long decodedBytes;
+        public long totalMillis;
+
+        @Override
+        public String toString()
+        {
+            StringBuilder builder = new StringBuilder();
+            builder.append("Refreshed ").append(results.size()).append(" locations in ")
+                    .append(totalMillis).append("ms, ").append(failures).append(" failed, ")
+                    .append(insertedRows).append(" rows inserted, ")
+                    .append(updatedRows).append(" updated, ")
+                    .append(unchangedRows).append(" unchanged, ")
+                    .append(wireBytes).append(" bytes on the wire for ")
+                    .append(decodedBytes).append(" decoded");
+            for (LocationResult result : results)
+            {
+                builder.append("\n  ").append(result.locationSetting).append(": ")
+                        .append(result.latencyMillis).append("ms");
+                if (result.error != null)
+                {
+                    builder.append(", failed: ").append(result.error);
+                } else
+                {
+                    builder.append(", status ").append(result.forecast.status)
+                            .append(", ").append(result.forecast.wireBytes).append("/")
+                            .append(result.forecast.decodedBytes).append(" bytes");
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
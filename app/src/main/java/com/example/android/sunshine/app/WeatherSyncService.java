@@ -0,0 +1,369 @@
+package com.example.android.sunshine.app;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ResponseCacheEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Background sync of the forecasts, so the UI only ever reads from the database.
+ * <p/>
+ * {@link #startSync} refreshes one location setting; the alarm set by {@link #ensureSyncScheduled}
+ * periodically refreshes every stored location through a {@link WeatherRefreshEngine}.
+ * A location that was fetched less than {@link #FRESH_MILLIS} ago is skipped unless the sync is
+ * forced, a sync requested while the same location is already queued is merged into the queued
+ * one, and a fetch that fails with an IOException is retried with exponential backoff plus jitter.
+ * <p/>
+ * Once a day, {@link #ACTION_COMPACT} drops old forecasts and compacts the database.
+ */
+public class WeatherSyncService extends IntentService
+{
+    public static final String ACTION_SYNC = "com.example.android.sunshine.app.action.SYNC";
+    public static final String ACTION_SYNC_ALL = "com.example.android.sunshine.app.action.SYNC_ALL";
+    public static final String ACTION_COMPACT = "com.example.android.sunshine.app.action.COMPACT";
+    public static final String EXTRA_LOCATION = "location";
+    public static final String EXTRA_FORCE = "force";
+    public static final String EXTRA_ATTEMPT = "attempt";
+
+    // Data younger than this isn't fetched again unless the sync is forced
+    public static final long FRESH_MILLIS = 30 * 60 * 1000L;
+    // Retry delays: BACKOFF_BASE_MILLIS * 2^(attempt - 1), capped, scaled by a 50%-150% jitter
+    private static final long BACKOFF_BASE_MILLIS = 30 * 1000L;
+    private static final long BACKOFF_MAX_MILLIS = 60 * 60 * 1000L;
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final String LOG_TAG = WeatherSyncService.class.getSimpleName();
+    private static final String EXTRA_DUPLICATE = "duplicate";
+
+    // The queued sync of each location setting, with the strongest force and attempt requested
+    // for it since. Touched from the main thread in onStartCommand and from the worker thread in
+    // onHandleIntent, always under its own lock.
+    private static final Map<String, PendingSync> sPendingSyncs = new HashMap<String, PendingSync>();
+    private static final Random sRandom = new Random();
+
+    private static final class PendingSync
+    {
+        boolean force;
+        int attempt;
+
+        PendingSync(boolean force, int attempt)
+        {
+            this.force = force;
+            this.attempt = attempt;
+        }
+    }
+
+    public WeatherSyncService()
+    {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Asks for the forecast of a location setting to be refreshed in the background.
+     *
+     * @param force fetch even if the stored forecast is still fresh
+     */
+    public static void startSync(Context context, String locationSetting, boolean force)
+    {
+        context.startService(createSyncIntent(context, locationSetting, force, 0));
+    }
+
+    /**
+     * Sets up the periodic sync and the daily clean up if they aren't already, e.g. on first start
+     * or after a reboot. An alarm that is already set is left alone, re-arming it would push its
+     * next run back.
+     */
+    public static void ensureSyncScheduled(Context context)
+    {
+        if (PendingIntent.getService(context, 0, createSyncAllIntent(context), PendingIntent.FLAG_NO_CREATE) == null)
+        {
+            scheduleSync(context);
+        }
+        scheduleCompact(context);
+    }
+
+    /**
+     * Sets up (or updates) the periodic sync with the interval from the settings.
+     */
+    public static void scheduleSync(Context context)
+    {
+        long intervalMillis = 60 * 1000L * SettingsSnapshot.get(context).getSyncIntervalMinutes();
+
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, createSyncAllIntent(context),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        // Inexact and not waking the device up, the alarm manager can batch it with other alarms
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + intervalMillis, intervalMillis, pendingIntent);
+    }
+
+    /**
+     * Sets up the daily clean up if it isn't already. It doesn't depend on any setting, so an
+     * alarm that is set is never re-armed: that would push it back by a day every time and it
+     * would never run for someone who opens the app daily.
+     */
+    private static void scheduleCompact(Context context)
+    {
+        // a different action than the sync, so it gets its own PendingIntent
+        Intent compactIntent = new Intent(context, WeatherSyncService.class).setAction(ACTION_COMPACT);
+        if (PendingIntent.getService(context, 0, compactIntent, PendingIntent.FLAG_NO_CREATE) != null)
+        {
+            return;
+        }
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_DAY, AlarmManager.INTERVAL_DAY,
+                PendingIntent.getService(context, 0, compactIntent, 0));
+    }
+
+    private static Intent createSyncAllIntent(Context context)
+    {
+        return new Intent(context, WeatherSyncService.class).setAction(ACTION_SYNC_ALL);
+    }
+
+    private static Intent createSyncIntent(Context context, String locationSetting, boolean force, int attempt)
+    {
+        return new Intent(context, WeatherSyncService.class)
+                .setAction(ACTION_SYNC)
+                // gives every location its own PendingIntent for retries
+                .setData(WeatherEntry.buildWeatherLocation(locationSetting))
+                .putExtra(EXTRA_LOCATION, locationSetting)
+                .putExtra(EXTRA_FORCE, force)
+                .putExtra(EXTRA_ATTEMPT, attempt);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId)
+    {
+        // Runs on the main thread as soon as the sync is requested, so a second request for a
+        // location that is already queued can be recognized before it is queued behind it. It is
+        // merged into the queued one rather than dropped: a forced refresh or a retry must not be
+        // lost behind a sync that is going to skip a fresh location.
+        if (intent != null && ACTION_SYNC.equals(intent.getAction()))
+        {
+            String locationSetting = intent.getStringExtra(EXTRA_LOCATION);
+            boolean force = intent.getBooleanExtra(EXTRA_FORCE, false);
+            int attempt = intent.getIntExtra(EXTRA_ATTEMPT, 0);
+            if (locationSetting != null)
+            {
+                synchronized (sPendingSyncs)
+                {
+                    PendingSync pending = sPendingSyncs.get(locationSetting);
+                    if (pending == null)
+                    {
+                        sPendingSyncs.put(locationSetting, new PendingSync(force, attempt));
+                    } else
+                    {
+                        pending.force |= force;
+                        pending.attempt = Math.max(pending.attempt, attempt);
+                        intent.putExtra(EXTRA_DUPLICATE, true);
+                    }
+                }
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent)
+    {
+        if (intent == null)
+        {
+            return;
+        }
+        if (ACTION_SYNC_ALL.equals(intent.getAction()))
+        {
+            syncAll();
+        } else if (ACTION_COMPACT.equals(intent.getAction()))
+        {
+            compact();
+        } else if (ACTION_SYNC.equals(intent.getAction()))
+        {
+            String locationSetting = intent.getStringExtra(EXTRA_LOCATION);
+            if (locationSetting == null || intent.getBooleanExtra(EXTRA_DUPLICATE, false))
+            {
+                Log.v(LOG_TAG, "Dropping duplicate sync of " + locationSetting + ", merged into the queued one");
+                return;
+            }
+            // Taken off before it runs: what it was merged with so far is done by this run, a
+            // request that comes in while it runs is queued behind it again
+            PendingSync pending;
+            synchronized (sPendingSyncs)
+            {
+                pending = sPendingSyncs.remove(locationSetting);
+            }
+            if (pending == null)
+            {
+                pending = new PendingSync(intent.getBooleanExtra(EXTRA_FORCE, false),
+                        intent.getIntExtra(EXTRA_ATTEMPT, 0));
+            }
+            sync(locationSetting, pending.force, pending.attempt);
+        }
+    }
+
+    private void sync(String locationSetting, boolean force, int attempt)
+    {
+        if (!force && attempt == 0 && isFresh(locationSetting))
+        {
+            Log.v(LOG_TAG, locationSetting + " is still fresh, skipping");
+            return;
+        }
+        try
+        {
+            ForecastFetcher.Forecast forecast = new ForecastFetcher(this).fetch(locationSetting);
+            Log.v(LOG_TAG, "Fetched " + locationSetting + " with status " + forecast.status
+                    + ": " + forecast.insertedRows + " inserted, " + forecast.updatedRows + " updated, "
+                    + forecast.unchangedRows + " unchanged, " + forecast.wireBytes + " bytes on the wire for "
+                    + forecast.decodedBytes + " decoded");
+        } catch (IOException e)
+        {
+            Log.e(LOG_TAG, "Error fetching " + locationSetting, e);
+            scheduleRetry(locationSetting, attempt + 1);
+            return;
+        } catch (JSONException e)
+        {
+            // retrying won't make the answer parse
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return;
+        }
+
+        // The hourly slots are only a nice-to-have for the chart, a failure here isn't retried
+        try
+        {
+            int slots = new ForecastFetcher(this).fetchHourly(locationSetting);
+            Log.v(LOG_TAG, "Stored " + slots + " hourly slots for " + locationSetting);
+        } catch (IOException e)
+        {
+            Log.e(LOG_TAG, "Error fetching the hourly forecast of " + locationSetting, e);
+        } catch (JSONException e)
+        {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        }
+    }
+
+    private void syncAll()
+    {
+        Set<String> locationSettings = new LinkedHashSet<String>();
+        locationSettings.add(Utility.getPreferredLocation(this));
+        Cursor cursor = getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        if (cursor != null)
+        {
+            while (cursor.moveToNext())
+            {
+                locationSettings.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+
+        List<String> staleLocations = new ArrayList<String>();
+        for (String locationSetting : locationSettings)
+        {
+            if (!isFresh(locationSetting) && !isPending(locationSetting))
+            {
+                staleLocations.add(locationSetting);
+            }
+        }
+        if (staleLocations.isEmpty())
+        {
+            return;
+        }
+
+        WeatherRefreshEngine engine = new WeatherRefreshEngine(this);
+        try
+        {
+            WeatherRefreshEngine.Report report = engine.refresh(staleLocations);
+            for (WeatherRefreshEngine.LocationResult result : report.results)
+            {
+                if (result.error instanceof IOException)
+                {
+                    scheduleRetry(result.locationSetting, 1);
+                }
+            }
+        } finally
+        {
+            engine.shutdown();
+        }
+    }
+
+    private void compact()
+    {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_HISTORY_DAYS, WeatherContract.DEFAULT_HISTORY_DAYS);
+        extras.putInt(WeatherContract.EXTRA_MAX_DAYS_PER_LOCATION, WeatherContract.DEFAULT_MAX_DAYS_PER_LOCATION);
+        Bundle result = getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT, null, extras);
+        Log.v(LOG_TAG, "Compacted: " + result.getInt(WeatherContract.EXTRA_DELETED_ROWS) + " rows deleted, "
+                + result.getLong(WeatherContract.EXTRA_RECLAIMED_BYTES) + " bytes reclaimed");
+    }
+
+    private static boolean isPending(String locationSetting)
+    {
+        synchronized (sPendingSyncs)
+        {
+            return sPendingSyncs.containsKey(locationSetting);
+        }
+    }
+
+    // True if the forecast of the location was fetched or revalidated within FRESH_MILLIS
+    private boolean isFresh(String locationSetting)
+    {
+        Cursor cursor = getContentResolver().query(ResponseCacheEntry.CONTENT_URI,
+                new String[]{ResponseCacheEntry.COLUMN_FETCHED},
+                ResponseCacheEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null)
+        {
+            return false;
+        }
+        try
+        {
+            return cursor.moveToFirst()
+                    && System.currentTimeMillis() - cursor.getLong(0) < FRESH_MILLIS;
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    private void scheduleRetry(String locationSetting, int attempt)
+    {
+        if (attempt > MAX_ATTEMPTS)
+        {
+            Log.w(LOG_TAG, "Giving up on " + locationSetting + " until the next scheduled sync");
+            return;
+        }
+        long delayMillis = Math.min(BACKOFF_BASE_MILLIS << (attempt - 1), BACKOFF_MAX_MILLIS);
+        // Jitter spreads the retries out so failed locations don't all come back at once
+        delayMillis = (long) (delayMillis * (0.5 + sRandom.nextDouble()));
+        Log.v(LOG_TAG, "Retrying " + locationSetting + " in " + delayMillis + "ms (attempt " + attempt + ")");
+
+        PendingIntent pendingIntent = PendingIntent.getService(this, 0,
+                createSyncIntent(this, locationSetting, true, attempt), PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + delayMillis, pendingIntent);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.data;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * Process-wide map of location settings to their _ID in the location table.
+ * <p/>
+ * A location's id never changes once the row exists, so after the first lookup
+ * {@link WeatherContract#METHOD_GET_OR_CREATE_LOCATION} answers from here without touching the
+ * database. The provider clears it whenever location rows are updated or deleted, and the db
+ * helper when it creates a new database.
+ */
+final class LocationIdCache
+{
+    // Far more than anyone has locations, only bounds the memory if something goes wrong
+    private static final int MAX_LOCATIONS = 64;
+
+    private static final LruCache<String, Long> sIds = new LruCache<String, Long>(MAX_LOCATIONS);
+
+    private LocationIdCache()
+    {
+    }
+
+    static Long get(String locationSetting)
+    {
+        return sIds.get(locationSetting);
+    }
+
+    static void put(String locationSetting, long id)
+    {
+        sIds.put(locationSetting, id);
+    }
+
+    static void clear()
+    {
+        sIds.evictAll();
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Results of the provider's weather/&lt;location&gt; and weather/&lt;location&gt;/&lt;date&gt; queries,
+ * kept as plain values so a repeated query is answered with a MatrixCursor without touching
+ * SQLite. The list and the detail pane ask for the same few results on every resume and every
+ * click, and they only change when a sync writes.
+ * <p/>
+ * The provider sends every change notification through {@link #invalidate}, before observers
+ * see it, so nothing stale is served after a write. The cache is bounded by the number of cells,
+ * and results of more than {@link #MAX_ROWS} rows aren't kept at all.
+ */
+final class QueryResultCache
+{
+    // A few hundred forecast lists or thousands of detail rows, a couple of hundred KB at most
+    private static final int MAX_CELLS = 8 * 1024;
+    // Enough for a forecast list, history pages are read once and not worth keeping
+    static final int MAX_ROWS = 64;
+
+    private static final class Snapshot
+    {
+        final String[] columnNames;
+        final Object[][] rows;
+
+        Snapshot(String[] columnNames, Object[][] rows)
+        {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+    }
+
+    private final LruCache<String, Snapshot> mSnapshots = new LruCache<String, Snapshot>(MAX_CELLS)
+    {
+        @Override
+        protected int sizeOf(String key, Snapshot snapshot)
+        {
+            return Math.max(1, snapshot.rows.length * snapshot.columnNames.length);
+        }
+    };
+    // Bumped by every invalidation, a result read before it isn't stored after it
+    private int mGeneration;
+    private int mHits;
+    private int mMisses;
+
+    static String getKey(Uri uri, String[] projection, String sortOrder)
+    {
+        // the location first, so invalidate() can find the entries of a location
+        return uri.getPathSegments().get(1) + '\n' + uri + '\n' + Arrays.toString(projection) + '\n' + sortOrder;
+    }
+
+    /**
+     * Returns a cursor over the cached result, or null (counted as a miss) if there is none.
+     */
+    synchronized Cursor get(String key)
+    {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null)
+        {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        MatrixCursor cursor = new MatrixCursor(snapshot.columnNames, snapshot.rows.length);
+        for (Object[] row : snapshot.rows)
+        {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    synchronized int getGeneration()
+    {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the result into the cache, unless it's too big or something was written since
+     * generation was read. Either way the returned cursor is positioned before the first row.
+     */
+    Cursor put(String key, int generation, Cursor cursor)
+    {
+        if (cursor.getCount() > MAX_ROWS)
+        {
+            return cursor;
+        }
+        String[] columnNames = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        int i = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+        {
+            Object[] row = new Object[columnNames.length];
+            for (int column = 0; column < row.length; column++)
+            {
+                row[column] = getValue(cursor, column);
+            }
+            rows[i++] = row;
+        }
+        cursor.moveToPosition(-1);
+
+        synchronized (this)
+        {
+            if (generation == mGeneration)
+            {
+                mSnapshots.put(key, new Snapshot(columnNames, rows));
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops the results a change on uri may have touched: those of one location for
+     * weather/&lt;location&gt;..., everything for the whole weather uri or a location change
+     * (the results include location columns). Other uris have nothing cached.
+     */
+    synchronized void invalidate(Uri uri)
+    {
+        String table = uri.getPathSegments().isEmpty() ? null : uri.getPathSegments().get(0);
+        if (WeatherContract.PATH_WEATHER.equals(table) && uri.getPathSegments().size() > 1)
+        {
+            mGeneration++;
+            String prefix = uri.getPathSegments().get(1) + '\n';
+            for (String key : mSnapshots.snapshot().keySet())
+            {
+                if (key.startsWith(prefix))
+                {
+                    mSnapshots.remove(key);
+                }
+            }
+        } else if (table == null || WeatherContract.PATH_WEATHER.equals(table)
+                || WeatherContract.PATH_LOCATION.equals(table))
+        {
+            mGeneration++;
+            mSnapshots.evictAll();
+        }
+    }
+
+    synchronized int getHits()
+    {
+        return mHits;
+    }
+
+    synchronized int getMisses()
+    {
+        return mMisses;
+    }
+
+    private static Object getValue(Cursor cursor, int column)
+    {
+        switch (cursor.getType(column))
+        {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects what a write changed and turns it into as few, as narrow notifications as possible,
+ * sent once the write is committed.
+ * <p/>
+ * Observers are registered with their descendants (that's what Cursor.setNotificationUri and
+ * ForecastLoader do), so a change of one day is sent on weather/&lt;location&gt;/&lt;date&gt;,
+ * which reaches the detail of that day and the list of that location but nothing showing
+ * another location. A location with more than one changed day gets a single weather/&lt;location&gt;
+ * instead of one notification per day, and only a write that may have touched every location
+ * falls back to the whole weather uri. Hourly slots are notified per location the same way.
+ */
+final class WeatherChanges
+{
+    private final SQLiteDatabase mDb;
+    // location _ID -> location setting, resolved once per write
+    private final Map<Long, String> mLocationSettings = new HashMap<Long, String>();
+    // location setting -> changed days, null once the whole location is notified
+    private final Map<String, Set<Long>> mWeatherDays = new LinkedHashMap<String, Set<Long>>();
+    private final Set<String> mHourlyLocations = new LinkedHashSet<String>();
+    private final Set<Uri> mOtherUris = new LinkedHashSet<Uri>();
+    private boolean mAllWeather;
+    private boolean mAllHourly;
+
+    WeatherChanges(SQLiteDatabase db)
+    {
+        mDb = db;
+    }
+
+    void addWeatherDay(long locationId, long date)
+    {
+        String locationSetting = getLocationSetting(locationId);
+        if (locationSetting == null)
+        {
+            mAllWeather = true;
+            return;
+        }
+        if (!mWeatherDays.containsKey(locationSetting))
+        {
+            Set<Long> days = new LinkedHashSet<Long>();
+            days.add(date);
+            mWeatherDays.put(locationSetting, days);
+            return;
+        }
+        Set<Long> days = mWeatherDays.get(locationSetting);
+        if (days != null && !days.contains(date))
+        {
+            // a second day, from here on the location is notified as a whole
+            mWeatherDays.put(locationSetting, null);
+        }
+    }
+
+    void addWeatherLocation(long locationId)
+    {
+        String locationSetting = getLocationSetting(locationId);
+        if (locationSetting == null)
+        {
+            mAllWeather = true;
+        } else
+        {
+            mWeatherDays.put(locationSetting, null);
+        }
+    }
+
+    void addAllWeather()
+    {
+        mAllWeather = true;
+    }
+
+    void addHourlyLocation(long locationId)
+    {
+        String locationSetting = getLocationSetting(locationId);
+        if (locationSetting == null)
+        {
+            mAllHourly = true;
+        } else
+        {
+            mHourlyLocations.add(locationSetting);
+        }
+    }
+
+    void addAllHourly()
+    {
+        mAllHourly = true;
+    }
+
+    // Anything without a narrower uri, e.g. location
+    void addUri(Uri uri)
+    {
+        mOtherUris.add(uri);
+    }
+
+    /**
+     * Adds the locations of the weather or hourly rows a selection matches, before the rows are
+     * updated or deleted. A null selection matches everything, which is notified as a whole.
+     */
+    void addRows(String table, String selection, String[] selectionArgs)
+    {
+        boolean weather = WeatherEntry.TABLE_NAME.equals(table);
+        if (selection == null)
+        {
+            if (weather)
+            {
+                mAllWeather = true;
+            } else
+            {
+                mAllHourly = true;
+            }
+            return;
+        }
+        Cursor cursor = mDb.query(true, table,
+                new String[]{weather ? WeatherEntry.COLUMN_LOC_KEY : HourlyEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                if (weather)
+                {
+                    addWeatherLocation(cursor.getLong(0));
+                } else
+                {
+                    addHourlyLocation(cursor.getLong(0));
+                }
+            }
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    List<Uri> getUris()
+    {
+        List<Uri> uris = new ArrayList<Uri>();
+        if (mAllWeather)
+        {
+            uris.add(WeatherEntry.CONTENT_URI);
+        } else
+        {
+            for (Map.Entry<String, Set<Long>> entry : mWeatherDays.entrySet())
+            {
+                if (entry.getValue() == null)
+                {
+                    uris.add(WeatherEntry.buildWeatherLocation(entry.getKey()));
+                } else
+                {
+                    for (long date : entry.getValue())
+                    {
+                        uris.add(WeatherEntry.buildWeatherLocationWithDate(entry.getKey(), date));
+                    }
+                }
+            }
+        }
+        if (mAllHourly)
+        {
+            uris.add(HourlyEntry.CONTENT_URI);
+        } else
+        {
+            for (String locationSetting : mHourlyLocations)
+            {
+                uris.add(HourlyEntry.buildHourlyLocation(locationSetting));
+            }
+        }
+        uris.addAll(mOtherUris);
+        return uris;
+    }
+
+    private String getLocationSetting(long locationId)
+    {
+        if (mLocationSettings.containsKey(locationId))
+        {
+            return mLocationSettings.get(locationId);
+        }
+        String locationSetting;
+        try
+        {
+            locationSetting = DatabaseUtils.stringForQuery(mDb,
+                    "SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME
+                            + " WHERE " + LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)});
+        } catch (SQLiteDoneException e)
+        {
+            // no such location, the insert will be rejected by the foreign key anyway
+            locationSetting = null;
+        }
+        mLocationSettings.put(locationId, locationSetting);
+        return locationSetting;
+    }
+}
@@ -4,9 +4,8 @@ import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -14,7 +13,7 @@ import java.util.Date;
 public class WeatherContract
 {
 
-    public static final String DATE_FORMAT = "yyyyMMdd";
+    static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
 
     /* Inner class that defines the table contents of the location table */
     public static final String CONTENT_AUTHORITY = "com.example.android.sunshine.app";
@@ -22,27 +21,56 @@ public class WeatherContract
 
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_RESPONSE_CACHE = "response_cache";
+    public static final String PATH_HOURLY = "hourly";
 
-    // convert db date type to DATE_FORMAT style
-    public static Date getDateFromDb(String dateText)
+    // Provider methods reachable through ContentResolver.call()
+    // Upserts the ContentValues[] in EXTRA_VALUES into the weather table, see WeatherEntry.buildWeatherUpsertUri()
+    public static final String METHOD_UPSERT_WEATHER = "upsert_weather";
+    public static final String EXTRA_VALUES = "values";
+    // Row counts returned by METHOD_UPSERT_WEATHER
+    public static final String EXTRA_INSERTED = "inserted";
+    public static final String EXTRA_UPDATED = "updated";
+    public static final String EXTRA_UNCHANGED = "unchanged";
+    // Returns the _ID of the location with the setting in the ContentValues in EXTRA_VALUES as
+    // EXTRA_LOCATION_ID, inserting the location if it isn't stored yet
+    public static final String METHOD_GET_OR_CREATE_LOCATION = "get_or_create_location";
+    public static final String EXTRA_LOCATION_ID = "location_id";
+    // Deletes weather and hourly rows older than EXTRA_HISTORY_DAYS days before today, then
+    // the oldest days of any location with more than EXTRA_MAX_DAYS_PER_LOCATION days, and
+    // gives the freed pages back to the file system
+    public static final String METHOD_COMPACT = "compact";
+    public static final String EXTRA_HISTORY_DAYS = "history_days";
+    public static final String EXTRA_MAX_DAYS_PER_LOCATION = "max_days_per_location";
+    public static final int DEFAULT_HISTORY_DAYS = 7;
+    public static final int DEFAULT_MAX_DAYS_PER_LOCATION = 30;
+    // Results of METHOD_COMPACT
+    public static final String EXTRA_DELETED_ROWS = "deleted_rows";
+    public static final String EXTRA_RECLAIMED_BYTES = "reclaimed_bytes";
+    // Returns how many weather queries were answered from the provider's result cache as
+    // EXTRA_CACHE_HITS and how many had to run as EXTRA_CACHE_MISSES, since the provider started
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+    // Dates are stored as the number of days since 1970-01-01 of the local calendar date, so
+    // "the same day", "on or after a day" and "n days later" are plain integer comparisons.
+    public static long getDbDay(long millis)
     {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(DATE_FORMAT);
-        try
-        {
-            return dbDateFormat.parse(dateText);
-        } catch (ParseException e)
-        {
-            e.printStackTrace();
-            return null;
-        }
+        return (millis + TimeZone.getDefault().getOffset(millis)) / DAY_MILLIS;
     }
 
-    public static String getDbDateString(Date date)
+    public static long getDbDay(Date date)
     {
-        // Because the API returns a unix timestamp (measured in seconds),
-        // it must be converted to milliseconds in order to be converted to valid date.
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(date);
+        return getDbDay(date.getTime());
+    }
+
+    // convert db day back to a Date, for formatting. The Date is at local noon of that day so
+    // a daylight saving shift can't move it to the day before or after.
+    public static Date getDateFromDb(long day)
+    {
+        long utcNoon = day * DAY_MILLIS + DAY_MILLIS / 2;
+        return new Date(utcNoon - TimeZone.getDefault().getOffset(utcNoon));
     }
 
     public static final class LocationEntry implements BaseColumns
@@ -67,6 +95,20 @@ public class WeatherContract
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
 
+        public static final String PARAM_GET_OR_CREATE = "get_or_create";
+
+        // insert on this URI returns the uri of the location already stored for the setting
+        // instead of failing, so an applyBatch can back-reference the location either way
+        public static Uri buildLocationGetOrCreateUri()
+        {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_GET_OR_CREATE, "true").build();
+        }
+
+        public static boolean isGetOrCreateUri(Uri uri)
+        {
+            return "true".equals(uri.getQueryParameter(PARAM_GET_OR_CREATE));
+        }
+
 
 
 
@@ -81,8 +123,8 @@ public class WeatherContract
         public static final String TABLE_NAME = "weather";
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as Text with format yyyy-MM-dd
-        public static final String COLUMN_DATETEXT = "date";        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
+        // Date, stored as an integer day number, see getDbDay()
+        public static final String COLUMN_DATE = "date";        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
         // Short description and long description of the weather, as provided by API.
@@ -100,6 +142,8 @@ public class WeatherContract
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        public static final String PARAM_UPSERT = "upsert";
+
         //------------Methods @ Reza
         public static Uri buildWeatherUri(long id) //Used to build URIs that ask for specific weather information(asked for by weather id)
         {
@@ -111,14 +155,15 @@ public class WeatherContract
             return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
         }
 
-        public static Uri buildWeatherLocationWithStartDate(String locationSetting, String startDate)
+        public static Uri buildWeatherLocationWithStartDate(String locationSetting, long startDate)
         {
-            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendQueryParameter(COLUMN_DATETEXT, startDate).build();
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate)).build();
         }
 
-        public static Uri buildWeatherLocationWithDate(String locationSetting, String date)
+        public static Uri buildWeatherLocationWithDate(String locationSetting, long date)
         {
-            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(date).build();
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(Long.toString(date)).build();
         }
 
         public static String getLocationSettingFromUri(Uri uri)
@@ -126,21 +171,202 @@ public class WeatherContract
             return uri.getPathSegments().get(1);
         }
 
-        public static String getDateFromUri(Uri uri)
+        public static long getDateFromUri(Uri uri)
+        {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        public static long getStartDateFromUri(Uri uri)
+        {
+            //returns the part after = in string "date=16399", 0 if there is none
+            String startDate = uri.getQueryParameter(COLUMN_DATE);
+            return startDate == null ? 0 : Long.parseLong(startDate);
+        }
+
+        // bulkInsert on this URI upserts: rows are matched to stored ones by location and date,
+        // only changed columns are updated in place (keeping _ID), and the returned count is the
+        // number of rows that were inserted or actually changed.
+        public static Uri buildWeatherUpsertUri()
+        {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri)
+        {
+            return "true".equals(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
+        // insert on the upsert uri upserts one row, e.g. as an operation of a batch. The returned
+        // uri is the row's, with what was done to it (EXTRA_INSERTED, EXTRA_UPDATED or
+        // EXTRA_UNCHANGED) in PARAM_UPSERT.
+        public static Uri buildWeatherUpsertResultUri(long id, String result)
+        {
+            return buildWeatherUri(id).buildUpon().appendQueryParameter(PARAM_UPSERT, result).build();
+        }
+
+        public static String getUpsertResultFromUri(Uri uri)
+        {
+            return uri.getQueryParameter(PARAM_UPSERT);
+        }
+
+        // Paging of weather/<location>: at most PARAM_LIMIT days, either after skipping
+        // PARAM_OFFSET days or (keyset paging, the cheap one for deep pages) only the days after
+        // PARAM_AFTER_DATE. Paged queries are ordered by date unless they say otherwise.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_OFFSET = "offset";
+        public static final String PARAM_AFTER_DATE = "after";
+        // The most days a page holds, a limit above it is lowered to it. A page of even the widest
+        // projection is ~300 bytes a row in the CursorWindow, so this many rows fit the default
+        // 2MB window and the cursor never has to run the query again to refill it.
+        public static final int MAX_PAGE_ROWS = 1000;
+
+        // The days of a location after afterDate, oldest first. Pass the date of the last day of
+        // the previous page to get the next one.
+        public static Uri buildWeatherLocationPage(String locationSetting, long afterDate, int limit)
+        {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherLocationWithOffset(String locationSetting, int offset, int limit)
+        {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_OFFSET, Integer.toString(offset))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static boolean isPagedUri(Uri uri)
+        {
+            return uri.getQueryParameter(PARAM_LIMIT) != null || uri.getQueryParameter(PARAM_OFFSET) != null
+                    || uri.getQueryParameter(PARAM_AFTER_DATE) != null;
+        }
+
+        // The page size of a paged uri, never more than MAX_PAGE_ROWS. Not positive is rejected,
+        // SQLite would take a negative LIMIT as no limit at all.
+        public static int getLimitFromUri(Uri uri)
+        {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            if (limit == null)
+            {
+                return MAX_PAGE_ROWS;
+            }
+            int rows = Integer.parseInt(limit);
+            if (rows <= 0)
+            {
+                throw new IllegalArgumentException("Page size must be positive: " + limit);
+            }
+            return Math.min(rows, MAX_PAGE_ROWS);
+        }
+
+        public static int getOffsetFromUri(Uri uri)
         {
-            return uri.getPathSegments().get(2);
+            String offset = uri.getQueryParameter(PARAM_OFFSET);
+            if (offset == null)
+            {
+                return 0;
+            }
+            int rows = Integer.parseInt(offset);
+            if (rows < 0)
+            {
+                throw new IllegalArgumentException("Page offset must not be negative: " + offset);
+            }
+            return rows;
         }
 
-        public static String getStartDateFromUri(Uri uri)
+        // The date the page starts after, null if the uri doesn't use keyset paging
+        public static Long getAfterDateFromUri(Uri uri)
+        {
+            String afterDate = uri.getQueryParameter(PARAM_AFTER_DATE);
+            return afterDate == null ? null : Long.valueOf(afterDate);
+        }
+
+
+
+
+
+
+    }
+
+    /* Inner class that defines the table contents of the hourly forecast table */
+    public static final class HourlyEntry implements BaseColumns
+    {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+        public static final String TABLE_NAME = "hourly";
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the forecast slot, in seconds since the epoch (UTC). One row per slot per location.
+        public static final String COLUMN_TIME = "time";
+        // Temperature at the slot (stored as float)
+        public static final String COLUMN_TEMP = "temp";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // What a chart needs. These columns are all in the hourly index, so a range query with
+        // this projection is answered from the index alone.
+        public static final String[] CHART_COLUMNS = {COLUMN_TIME, COLUMN_TEMP, COLUMN_WEATHER_ID};
+
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        // All slots of a location, what its hourly notifications are sent on
+        public static Uri buildHourlyLocation(String locationSetting)
         {
-            //returns the part after = in string "date=20141125"
-            return uri.getQueryParameter(COLUMN_DATETEXT);
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
         }
 
+        // Slots of a location with start <= time < end, both in epoch seconds, oldest first
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long startSeconds, long endSeconds)
+        {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startSeconds))
+                    .appendQueryParameter(PARAM_END, Long.toString(endSeconds))
+                    .build();
+        }
 
+        public static String getLocationSettingFromUri(Uri uri)
+        {
+            return uri.getPathSegments().get(1);
+        }
 
+        // The start of the range, 0 if the uri has none
+        public static long getStartFromUri(Uri uri)
+        {
+            String start = uri.getQueryParameter(PARAM_START);
+            return start == null ? 0 : Long.parseLong(start);
+        }
 
+        // The end of the range, Long.MAX_VALUE if the uri has none
+        public static long getEndFromUri(Uri uri)
+        {
+            String end = uri.getQueryParameter(PARAM_END);
+            return end == null ? Long.MAX_VALUE : Long.parseLong(end);
+        }
+    }
 
+    /* Inner class that defines the table contents of the response cache table */
+    public static final class ResponseCacheEntry implements BaseColumns
+    {
 
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_RESPONSE_CACHE).build();
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_RESPONSE_CACHE;
+        public static final String TABLE_NAME = "response_cache";
+        // The location setting the cached response belongs to, one row per location setting.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // HTTP validators of the last forecast response, sent back as If-None-Match and
+        // If-Modified-Since. Either one may be null if the server didn't send it.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+        // Hex SHA-1 of the last response body, to catch identical responses without validators
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+        // When the forecast was last fetched or revalidated, in milliseconds since the epoch
+        public static final String COLUMN_FETCHED = "fetched";
     }
 }
\ No newline at end of file
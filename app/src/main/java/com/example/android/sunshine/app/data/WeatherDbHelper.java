@@ -1,25 +1,112 @@
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ResponseCacheEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p/>
+ * How the connection is set up (journal mode, page cache, synchronous level, foreign keys)
+ * comes from a {@link Config}. The default uses write-ahead logging, so the loaders of the UI
+ * keep reading while a sync holds a write transaction open.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper
 {
 
     public static final String DATABASE_NAME = "weather.db";
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 5;
+
+    public static final String HOURLY_CHART_INDEX = "hourly_chart_index";
+    public static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date_index";
+
+    private final Config mConfig;
+
+    /**
+     * Connection settings of the database, see {@link #DEFAULT}.
+     */
+    public static final class Config
+    {
+        public static final String SYNCHRONOUS_OFF = "OFF";
+        public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+        public static final String SYNCHRONOUS_FULL = "FULL";
+
+        /**
+         * Write-ahead logging, 2000 pages of cache (SQLite's own default), NORMAL synchronous
+         * (safe with WAL, a crash can only lose the last commits, never corrupt the file) and
+         * foreign keys enforced.
+         */
+        public static final Config DEFAULT = new Config(true, 2000, SYNCHRONOUS_NORMAL, true);
+
+        public final boolean writeAheadLogging;
+        public final int cacheSizePages;
+        public final String synchronous;
+        public final boolean foreignKeys;
+
+        public Config(boolean writeAheadLogging, int cacheSizePages, String synchronous, boolean foreignKeys)
+        {
+            if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                    && !SYNCHRONOUS_FULL.equals(synchronous))
+            {
+                throw new IllegalArgumentException("Unknown synchronous level: " + synchronous);
+            }
+            if (cacheSizePages <= 0)
+            {
+                throw new IllegalArgumentException("Cache size must be positive: " + cacheSizePages);
+            }
+            this.writeAheadLogging = writeAheadLogging;
+            this.cacheSizePages = cacheSizePages;
+            this.synchronous = synchronous;
+            this.foreignKeys = foreignKeys;
+        }
+    }
 
     public WeatherDbHelper(Context context)
+    {
+        this(context, Config.DEFAULT);
+    }
+
+    public WeatherDbHelper(Context context, Config config)
     {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mConfig = config;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            setWriteAheadLoggingEnabled(config.writeAheadLogging);
+        }
+    }
+
+    // Only called from Jelly Bean on, onOpen() does the same for older versions
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db)
+    {
+        db.setForeignKeyConstraintsEnabled(mConfig.foreignKeys);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db)
+    {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly())
+        {
+            if (mConfig.writeAheadLogging)
+            {
+                db.enableWriteAheadLogging();
+            }
+            db.execSQL("PRAGMA foreign_keys = " + (mConfig.foreignKeys ? "ON" : "OFF"));
+        }
+        // Both are per connection, they apply to the primary connection every write goes through
+        db.execSQL("PRAGMA cache_size = " + mConfig.cacheSizePages);
+        db.execSQL("PRAGMA synchronous = " + mConfig.synchronous);
     }
 
     @Override
@@ -36,7 +123,18 @@ public class WeatherDbHelper extends SQLiteOpenHelper
                 "UNIQUE (" + LocationEntry.COLUMN_LOCATION_SETTING + ") ON CONFLICT IGNORE" +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        // ids cached for a database that was deleted mean nothing in this one
+        LocationIdCache.clear();
+        createWeatherTable(sqLiteDatabase);
+        createWeatherIndex(sqLiteDatabase);
+        createResponseCacheTable(sqLiteDatabase);
+        createHourlyTable(sqLiteDatabase);
+    }
+
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase)
+    {
+        sqLiteDatabase.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -46,7 +144,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper
 
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATETEXT + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
@@ -64,24 +162,124 @@ public class WeatherDbHelper extends SQLiteOpenHelper
 
                 // To assure the application have just one weather entry per day
                 // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATETEXT + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+    }
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+    // The unique (date, location_id) index can't serve the provider's weather queries, which
+    // all filter on one location first: all its days, the days from a start date, or one day.
+    // With the location leading, each of them is a single search of this index, returned in date
+    // order. The columns of the forecast list come along, so the list never reads the table.
+    private static void createWeatherIndex(SQLiteDatabase sqLiteDatabase)
+    {
+        sqLiteDatabase.execSQL("CREATE INDEX " + WEATHER_LOCATION_DATE_INDEX + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ");");
+    }
+
+    // Validators and body hash of the last forecast response per location setting, so a
+    // refresh can skip parsing and storing a forecast that hasn't changed.
+    private static void createResponseCacheTable(SQLiteDatabase sqLiteDatabase)
+    {
+        sqLiteDatabase.execSQL("CREATE TABLE " + ResponseCacheEntry.TABLE_NAME + " (" +
+                ResponseCacheEntry._ID + " INTEGER PRIMARY KEY," +
+                ResponseCacheEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                ResponseCacheEntry.COLUMN_ETAG + " TEXT, " +
+                ResponseCacheEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                ResponseCacheEntry.COLUMN_CONTENT_HASH + " TEXT, " +
+                ResponseCacheEntry.COLUMN_FETCHED + " INTEGER NOT NULL, " +
+                "UNIQUE (" + ResponseCacheEntry.COLUMN_LOCATION_SETTING + ") ON CONFLICT REPLACE" +
+                " );");
+    }
+
+    // Hourly (3-hourly for OWM) forecast slots, keyed by location and an integer epoch second
+    private static void createHourlyTable(SQLiteDatabase sqLiteDatabase)
+    {
+        sqLiteDatabase.execSQL("CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                // location first, so the unique index also serves the range scans of one location
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);");
+
+        // Covering index for HourlyEntry.CHART_COLUMNS: a chart range is one index scan, the
+        // table itself is never touched.
+        sqLiteDatabase.execSQL("CREATE INDEX " + HOURLY_CHART_INDEX + " ON " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ", " +
+                HourlyEntry.COLUMN_TEMP + ", " +
+                HourlyEntry.COLUMN_WEATHER_ID + ");");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion)
     {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // Each step brings the schema one version further and keeps the stored data, so an
+        // update of the app doesn't cost the user their forecasts. onUpgrade already runs
+        // inside a transaction, a failing step leaves the old database untouched.
+        if (oldVersion < 2)
+        {
+            createResponseCacheTable(sqLiteDatabase);
+        }
+        if (oldVersion < 3)
+        {
+            createHourlyTable(sqLiteDatabase);
+        }
+        if (oldVersion < 4)
+        {
+            migrateWeatherDatesToDays(sqLiteDatabase);
+        }
+        if (oldVersion < 5)
+        {
+            createWeatherIndex(sqLiteDatabase);
+        }
+    }
+
+    // Version 4 stores weather dates as integer day numbers instead of yyyyMMdd text. SQLite
+    // can't change a column's type, so the table is rebuilt, converting the dates on the way and
+    // keeping every _ID. Foreign keys are already enforced here (onConfigure runs first) but
+    // weren't when the old rows were written, so rows of deleted locations are left behind
+    // rather than failing the whole upgrade.
+    private static void migrateWeatherDatesToDays(SQLiteDatabase sqLiteDatabase)
+    {
+        final String oldTable = WeatherEntry.TABLE_NAME + "_text_dates";
+        final String columns = WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES;
+        // yyyyMMdd -> yyyy-MM-dd -> julian day -> days since 1970-01-01 (julian day 2440587.5)
+        final String dateToDay = "CAST(julianday(" +
+                "substr(" + WeatherEntry.COLUMN_DATE + ", 1, 4) || '-' || " +
+                "substr(" + WeatherEntry.COLUMN_DATE + ", 5, 2) || '-' || " +
+                "substr(" + WeatherEntry.COLUMN_DATE + ", 7, 2)) - 2440587.5 AS INTEGER)";
+
+        sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " RENAME TO " + oldTable);
+        createWeatherTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME +
+                " (" + columns + ", " + WeatherEntry.COLUMN_DATE + ")" +
+                " SELECT " + columns + ", " + dateToDay + " FROM " + oldTable +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " IN" +
+                " (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")");
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTable);
     }
-}
\ No newline at end of file
+}
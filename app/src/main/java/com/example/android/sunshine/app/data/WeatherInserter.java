@@ -0,0 +1,235 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Compiled INSERT statements for the weather and location tables.
+ * <p/>
+ * SQLiteDatabase.insert() builds the SQL again for every row and binds the values out of the
+ * ContentValues map. Batches go through here instead: each statement is compiled once and
+ * reused for every row of the transaction, and the values are bound by position with their
+ * column's type. Rows with columns the statements don't know about (an explicit _ID for
+ * instance) still go through SQLiteDatabase.insert(), so the result is always the same.
+ * <p/>
+ * Only use it inside the caller's transaction, and {@link #close()} it before that ends.
+ */
+public final class WeatherInserter
+{
+    private static final String LOG_TAG = WeatherInserter.class.getSimpleName();
+
+    // Bind order of the weather insert, the position in this array + 1 is the bind index
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private final SQLiteDatabase mDb;
+    // Compiled the first time they are needed
+    private SQLiteStatement mInsertWeather;
+    private SQLiteStatement mInsertLocation;
+    private SQLiteStatement mUpdateLocation;
+
+    public WeatherInserter(SQLiteDatabase db)
+    {
+        mDb = db;
+    }
+
+    /**
+     * Inserts a weather row, a stored row for the same location and day is replaced.
+     *
+     * @return the row id, -1 if the row was rejected
+     */
+    public long insertWeather(ContentValues values)
+    {
+        if (!hasOnly(values, WEATHER_COLUMNS))
+        {
+            return mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+        if (mInsertWeather == null)
+        {
+            mInsertWeather = mDb.compileStatement(buildInsert(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS));
+        }
+        SQLiteStatement statement = mInsertWeather;
+        bindLong(statement, 1, values.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        bindLong(statement, 2, values.getAsLong(WeatherEntry.COLUMN_DATE));
+        bindString(statement, 3, values.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        bindLong(statement, 4, values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID));
+        bindDouble(statement, 5, values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        bindDouble(statement, 6, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        bindDouble(statement, 7, values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY));
+        bindDouble(statement, 8, values.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+        bindDouble(statement, 9, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+        bindDouble(statement, 10, values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        return executeInsert(statement, WeatherEntry.TABLE_NAME);
+    }
+
+    /**
+     * Inserts a location, or updates the city name and coordinates of the stored location with
+     * the same setting if they differ.
+     *
+     * @return true if a row was inserted or changed
+     */
+    public boolean upsertLocation(ContentValues values)
+    {
+        if (!hasOnly(values, LOCATION_COLUMNS))
+        {
+            return mDb.insert(LocationEntry.TABLE_NAME, null, values) != -1;
+        }
+        if (mInsertLocation == null)
+        {
+            // the table ignores a second row for a setting, the update below takes care of it
+            mInsertLocation = mDb.compileStatement(buildInsert(LocationEntry.TABLE_NAME, LOCATION_COLUMNS));
+            mUpdateLocation = mDb.compileStatement("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                    LocationEntry.COLUMN_CITY_NAME + " = ?1, " +
+                    LocationEntry.COLUMN_COORD_LAT + " = ?2, " +
+                    LocationEntry.COLUMN_COORD_LONG + " = ?3" +
+                    " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?4 AND (" +
+                    LocationEntry.COLUMN_CITY_NAME + " IS NOT ?1 OR " +
+                    LocationEntry.COLUMN_COORD_LAT + " IS NOT ?2 OR " +
+                    LocationEntry.COLUMN_COORD_LONG + " IS NOT ?3)");
+        }
+        String locationSetting = values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        String cityName = values.getAsString(LocationEntry.COLUMN_CITY_NAME);
+        Double lat = values.getAsDouble(LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(LocationEntry.COLUMN_COORD_LONG);
+
+        bindString(mInsertLocation, 1, locationSetting);
+        bindString(mInsertLocation, 2, cityName);
+        bindDouble(mInsertLocation, 3, lat);
+        bindDouble(mInsertLocation, 4, lon);
+        if (executeInsert(mInsertLocation, LocationEntry.TABLE_NAME) != -1)
+        {
+            return true;
+        }
+        if (locationSetting == null)
+        {
+            return false;
+        }
+
+        bindString(mUpdateLocation, 1, cityName);
+        bindDouble(mUpdateLocation, 2, lat);
+        bindDouble(mUpdateLocation, 3, lon);
+        mUpdateLocation.bindString(4, locationSetting);
+        try
+        {
+            return mUpdateLocation.executeUpdateDelete() > 0;
+        } catch (SQLiteConstraintException e)
+        {
+            Log.e(LOG_TAG, "Error updating location " + locationSetting, e);
+            return false;
+        }
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    public void close()
+    {
+        if (mInsertWeather != null)
+        {
+            mInsertWeather.close();
+        }
+        if (mInsertLocation != null)
+        {
+            mInsertLocation.close();
+            mUpdateLocation.close();
+        }
+    }
+
+    // Like SQLiteDatabase.insert(), a row breaking a constraint is logged and reported as -1
+    private static long executeInsert(SQLiteStatement statement, String table)
+    {
+        try
+        {
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e)
+        {
+            Log.e(LOG_TAG, "Error inserting into " + table, e);
+            return -1;
+        }
+    }
+
+    // True if every key of the values is one of the columns
+    private static boolean hasOnly(ContentValues values, String[] columns)
+    {
+        int known = 0;
+        for (String column : columns)
+        {
+            if (values.containsKey(column))
+            {
+                known++;
+            }
+        }
+        return known == values.size();
+    }
+
+    private static String buildInsert(String table, String[] columns)
+    {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++)
+        {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++)
+        {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    // A missing value is bound as NULL, the NOT NULL constraints reject the row like insert() does
+    private static void bindLong(SQLiteStatement statement, int index, Long value)
+    {
+        if (value == null)
+        {
+            statement.bindNull(index);
+        } else
+        {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static void bindDouble(SQLiteStatement statement, int index, Double value)
+    {
+        if (value == null)
+        {
+            statement.bindNull(index);
+        } else
+        {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value)
+    {
+        if (value == null)
+        {
+            statement.bindNull(index);
+        } else
+        {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 
 public class WeatherProvider extends ContentProvider
 {
@@ -20,7 +33,13 @@ public class WeatherProvider extends ContentProvider
     private static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     private static final int LOCATION = 300;
     private static final int LOCATION_ID = 301;
+    private static final int RESPONSE_CACHE = 400;
+    private static final int HOURLY = 500;
+    private static final int HOURLY_WITH_LOCATION = 501;
+
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // What weather/* returns for a null projection: every column of the join once
+    private static final String[] sWeatherDefaultProjection;
     private static final UriMatcher sUriMatcher = buildUriMatcher(); //add expressions to Matcher through buildUriMatcher()
 
     //Join String for weather+location response
@@ -35,6 +54,34 @@ public class WeatherProvider extends ContentProvider
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        // Only these columns can be asked for, anything else makes the query builder throw
+        // instead of reaching SQLite. _id is the weather row's, the join has two.
+        String weatherId = WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID;
+        Map<String, String> projectionMap = new LinkedHashMap<String, String>();
+        projectionMap.put(WeatherContract.WeatherEntry._ID, weatherId + " AS " + WeatherContract.WeatherEntry._ID);
+        for (String column : new String[]{
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG})
+        {
+            projectionMap.put(column, column);
+        }
+        sWeatherDefaultProjection = projectionMap.keySet().toArray(new String[projectionMap.size()]);
+        // the qualified id the fragments use, not part of the default projection
+        projectionMap.put(weatherId, weatherId);
+        sWeatherByLocationSettingQueryBuilder.setProjectionMap(projectionMap);
     }
 
     //Query for the join string
@@ -44,12 +91,29 @@ public class WeatherProvider extends ContentProvider
     private static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATETEXT + " >= ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+    private static final String sAfterDateSelection =
+            "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+    private static final String sDateOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
     private static final String sLocationSettingWithExactDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATETEXT + " = ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+    // The location is resolved by a subquery rather than a join, so the hourly side is a single
+    // range scan of the (location_id, time) index
+    private static final String sHourlyLocationSettingWithRangeSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = (SELECT " + WeatherContract.LocationEntry._ID +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+    private static final String sHourlyDefaultSortOrder = WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
     private WeatherDbHelper mOpenHelper;
+    // The changes of the applyBatch running on this thread, collected until it commits
+    private final ThreadLocal<WeatherChanges> mBatchChanges = new ThreadLocal<WeatherChanges>();
+    // The upserter the upsert inserts of a batch share, created by the first of them
+    private final ThreadLocal<WeatherUpserter> mBatchUpserter = new ThreadLocal<WeatherUpserter>();
+    private final QueryResultCache mQueryCache = new QueryResultCache();
 
     private static UriMatcher buildUriMatcher()
     {
@@ -59,30 +123,102 @@ public class WeatherProvider extends ContentProvider
         matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*/*", WEATHER_WITH_LOCATION_AND_DATE);
         matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION, LOCATION);
         matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION + "/#", LOCATION_ID);
+        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_RESPONSE_CACHE, RESPONSE_CACHE);
+        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
 
         return matcher;
     }
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder)
     {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        List<String> selectionArgs = new ArrayList<String>();
+        String selection = getWeatherByLocationSettingSelection(uri, selectionArgs);
 
-        String[] selectionArgs;
-        String selection;
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                getWeatherProjection(projection),
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                null,
+                getWeatherSortOrder(uri, sortOrder),
+                getWeatherLimit(uri)
+        );
+    }
 
-        if (startDate == null) //no start date so return for all dates
+    // Adds the values of the ?s to selectionArgs
+    private static String getWeatherByLocationSettingSelection(Uri uri, List<String> selectionArgs)
+    {
+        selectionArgs.add(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String selection;
+        if (startDate == 0) //no start date so return for all dates
         {
             selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
         } else //start date is defined so return only from the start date
         {
-            selectionArgs = new String[]{locationSetting, startDate};
             selection = sLocationSettingWithStartDateSelection;
+            selectionArgs.add(Long.toString(startDate));
+        }
+        Long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        if (afterDate != null)
+        {
+            // keyset paging, an index seek to the first day of the page however deep it is
+            selection += sAfterDateSelection;
+            selectionArgs.add(afterDate.toString());
+        }
+        return selection;
+    }
+
+    // A null projection gets every column of the join once, repeated columns are dropped
+    private static String[] getWeatherProjection(String[] projection)
+    {
+        if (projection == null)
+        {
+            return sWeatherDefaultProjection;
+        }
+        Set<String> columns = new LinkedHashSet<String>(Arrays.asList(projection));
+        return columns.size() == projection.length ? projection : columns.toArray(new String[columns.size()]);
+    }
+
+    // Pages come in date order unless asked otherwise, keyset pages only make sense in it
+    private static String getWeatherSortOrder(Uri uri, String sortOrder)
+    {
+        if (!WeatherContract.WeatherEntry.isPagedUri(uri))
+        {
+            return sortOrder;
+        }
+        if (sortOrder == null)
+        {
+            return sDateOrder;
         }
+        if (WeatherContract.WeatherEntry.getAfterDateFromUri(uri) != null && !sDateOrder.equalsIgnoreCase(sortOrder.trim()))
+        {
+            throw new IllegalArgumentException("Paging after a date needs sort order " + sDateOrder + ", not " + sortOrder);
+        }
+        return sortOrder;
+    }
+
+    // "offset,limit" the way SQLiteQueryBuilder takes it, null if the uri isn't paged
+    private static String getWeatherLimit(Uri uri)
+    {
+        if (!WeatherContract.WeatherEntry.isPagedUri(uri))
+        {
+            return null;
+        }
+        return WeatherContract.WeatherEntry.getOffsetFromUri(uri) + "," + WeatherContract.WeatherEntry.getLimitFromUri(uri);
+    }
+
+    private Cursor getWeatherByLocationAndExactDate(Uri uri, String[] projection, String sortOrder)
+    {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+
+        String[] selectionArgs = new String[]{locationSetting, Long.toString(date)};
+        String selection = sLocationSettingWithExactDateSelection;
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
+                getWeatherProjection(projection),
                 selection,
                 selectionArgs,
                 null,
@@ -91,24 +227,78 @@ public class WeatherProvider extends ContentProvider
         );
     }
 
-    private Cursor getWeatherByLocationAndExactDate(Uri uri, String[] projection, String sortOrder)
+    // The weather of a location or of one of its days, from the result cache if the same query
+    // already ran since the last write
+    private Cursor queryWeatherCached(Uri uri, String[] projection, String sortOrder)
     {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        if (mBatchChanges.get() != null)
+        {
+            // A query of a batch (e.g. an assert) sees the batch's uncommitted rows, which may
+            // still be rolled back, and must see them rather than what was cached before
+            return queryWeather(uri, projection, sortOrder);
+        }
+        String key = QueryResultCache.getKey(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null)
+        {
+            return cursor;
+        }
+        int generation = mQueryCache.getGeneration();
+        return mQueryCache.put(key, generation, queryWeather(uri, projection, sortOrder));
+    }
 
-        String[] selectionArgs = new String[]{locationSetting, date};
-        String selection = sLocationSettingWithExactDateSelection;
+    private Cursor queryWeather(Uri uri, String[] projection, String sortOrder)
+    {
+        if (sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE)
+        {
+            return getWeatherByLocationAndExactDate(uri, projection, sortOrder);
+        }
+        return getWeatherByLocationSetting(uri, projection, sortOrder);
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+    private Cursor getHourlyByLocationSettingAndRange(Uri uri, String[] projection, String sortOrder)
+    {
+        String[] selectionArgs = new String[]{
+                WeatherContract.HourlyEntry.getLocationSettingFromUri(uri),
+                Long.toString(WeatherContract.HourlyEntry.getStartFromUri(uri)),
+                Long.toString(WeatherContract.HourlyEntry.getEndFromUri(uri))};
+
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.HourlyEntry.TABLE_NAME,
                 projection,
-                selection,
+                sHourlyLocationSettingWithRangeSelection,
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder == null ? sHourlyDefaultSortOrder : sortOrder
         );
     }
 
+    /**
+     * Returns the SQL that {@link #query} runs for a uri whose selection is built by the
+     * provider (weather of a location, of a location and day, hourly range of a location), with
+     * ? in place of the values taken from the uri. Returns null for the other uris, where the
+     * caller passes the selection. Lets the tests check the query plans of the real queries.
+     */
+    public static String getQuerySql(Uri uri, String[] projection, String sortOrder)
+    {
+        switch (sUriMatcher.match(uri))
+        {
+            case WEATHER_WITH_LOCATION:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(getWeatherProjection(projection),
+                        getWeatherByLocationSettingSelection(uri, new ArrayList<String>()),
+                        null, null, getWeatherSortOrder(uri, sortOrder), getWeatherLimit(uri));
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(getWeatherProjection(projection),
+                        sLocationSettingWithExactDateSelection, null, null, sortOrder, null);
+            case HOURLY_WITH_LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false, WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection, sHourlyLocationSettingWithRangeSelection, null, null,
+                        sortOrder == null ? sHourlyDefaultSortOrder : sortOrder, null);
+            default:
+                return null;
+        }
+    }
+
     @Override
     public boolean onCreate()
     {
@@ -140,6 +330,11 @@ public class WeatherProvider extends ContentProvider
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
             case LOCATION_ID:
                 return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case RESPONSE_CACHE:
+                return WeatherContract.ResponseCacheEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -155,14 +350,10 @@ public class WeatherProvider extends ContentProvider
         {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationAndExactDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION:
             {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = queryWeatherCached(uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -207,6 +398,40 @@ public class WeatherProvider extends ContentProvider
                 );
                 break;
             }
+            // "response_cache"
+            case RESPONSE_CACHE:
+            {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ResponseCacheEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*?start=...&end=..."
+            case HOURLY_WITH_LOCATION:
+            {
+                retCursor = getHourlyByLocationSettingAndRange(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY:
+            {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -230,31 +455,56 @@ public class WeatherProvider extends ContentProvider
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        WeatherChanges changes = startChanges(db);
 
         switch (match)
         {
             case WEATHER:
             {
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri))
+                {
+                    returnUri = upsertWeatherRow(db, values);
+                    break;
+                }
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if (_id > 0)
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                addWeatherDay(changes, values);
+                forgetBatchUpserts();
                 break;
             }
             case LOCATION:
             {
+                if (WeatherContract.LocationEntry.isGetOrCreateUri(uri))
+                {
+                    returnUri = WeatherContract.LocationEntry.buildLocationUri(getOrCreateLocation(values, changes));
+                    break;
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if (_id > 0)
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addUri(WeatherContract.LocationEntry.CONTENT_URI);
+                break;
+            }
+            case RESPONSE_CACHE:
+            {
+                // one row per location setting, an insert replaces the previous entry
+                long _id = db.insert(WeatherContract.ResponseCacheEntry.TABLE_NAME, null, values);
+                if (_id > 0)
+                    returnUri = ContentUris.withAppendedId(WeatherContract.ResponseCacheEntry.CONTENT_URI, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addUri(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changes);
         return returnUri;
     }
 
@@ -264,17 +514,35 @@ public class WeatherProvider extends ContentProvider
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int countAffectedRows;
+        WeatherChanges changes = startChanges(db);
 
         switch (match)
         {
             case WEATHER:
             {
-                countAffectedRows = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
+                countAffectedRows = updateRows(db, changes, WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY, values, selection, selectionArgs);
+                forgetBatchUpserts();
                 break;
             }
             case LOCATION:
             {
                 countAffectedRows = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+                // the setting of a cached id may have changed
+                LocationIdCache.clear();
+                changes.addUri(uri);
+                break;
+            }
+            case RESPONSE_CACHE:
+            {
+                countAffectedRows = db.update(WeatherContract.ResponseCacheEntry.TABLE_NAME, values, selection, selectionArgs);
+                changes.addUri(uri);
+                break;
+            }
+            case HOURLY:
+            {
+                countAffectedRows = updateRows(db, changes, WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY, values, selection, selectionArgs);
                 break;
             }
             default:
@@ -287,7 +555,7 @@ public class WeatherProvider extends ContentProvider
         // second condition in if statement is duplicate and is always true. so
         // it can be removed.
         if (countAffectedRows != 0 || selection == null)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changes);
 
         return countAffectedRows;
     }
@@ -299,17 +567,33 @@ public class WeatherProvider extends ContentProvider
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int countAffectedRows;
+        WeatherChanges changes = startChanges(db);
 
         switch (match)
         {
             case WEATHER:
             {
-                countAffectedRows = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                countAffectedRows = deleteRows(db, changes, WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                forgetBatchUpserts();
                 break;
             }
             case LOCATION:
             {
-                countAffectedRows = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                countAffectedRows = deleteLocations(db, changes, selection, selectionArgs);
+                forgetBatchUpserts();
+                LocationIdCache.clear();
+                changes.addUri(uri);
+                break;
+            }
+            case RESPONSE_CACHE:
+            {
+                countAffectedRows = db.delete(WeatherContract.ResponseCacheEntry.TABLE_NAME, selection, selectionArgs);
+                changes.addUri(uri);
+                break;
+            }
+            case HOURLY:
+            {
+                countAffectedRows = deleteRows(db, changes, WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             }
             default:
@@ -319,11 +603,170 @@ public class WeatherProvider extends ContentProvider
             Log.w(LOG_TAG, "the delete command with the uri didn't delete anything => " + uri);
 
         if (countAffectedRows != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changes);
 
         return countAffectedRows;
     }
 
+    // Updates weather or hourly rows, noting the locations of the rows before and after
+    private static int updateRows(SQLiteDatabase db, WeatherChanges changes, String table, String locationColumn,
+                                  ContentValues values, String selection, String[] selectionArgs)
+    {
+        db.beginTransaction();
+        try
+        {
+            changes.addRows(table, selection, selectionArgs);
+            Long newLocationId = values.getAsLong(locationColumn);
+            if (newLocationId != null)
+            {
+                // rows moved to another location change that one too
+                if (WeatherContract.WeatherEntry.TABLE_NAME.equals(table))
+                {
+                    changes.addWeatherLocation(newLocationId);
+                } else
+                {
+                    changes.addHourlyLocation(newLocationId);
+                }
+            }
+            int count = db.update(table, values, selection, selectionArgs);
+            db.setTransactionSuccessful();
+            return count;
+        } finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    // Deletes weather or hourly rows, noting their locations while they are still there
+    private static int deleteRows(SQLiteDatabase db, WeatherChanges changes, String table,
+                                  String selection, String[] selectionArgs)
+    {
+        db.beginTransaction();
+        try
+        {
+            changes.addRows(table, selection, selectionArgs);
+            int count = db.delete(table, selection, selectionArgs);
+            db.setTransactionSuccessful();
+            return count;
+        } finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    // Deletes locations along with their weather and hourly rows, which the enforced foreign
+    // keys wouldn't let outlive them, in one transaction. The forecasts of each location are
+    // noted like any other deleted rows.
+    private static int deleteLocations(SQLiteDatabase db, WeatherChanges changes,
+                                       String selection, String[] selectionArgs)
+    {
+        String locationIds = "SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME +
+                (selection == null ? "" : " WHERE " + selection);
+        db.beginTransaction();
+        try
+        {
+            deleteRows(db, changes, WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (" + locationIds + ")", selectionArgs);
+            deleteRows(db, changes, WeatherContract.HourlyEntry.TABLE_NAME,
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " IN (" + locationIds + ")", selectionArgs);
+            int count = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+            db.setTransactionSuccessful();
+            return count;
+        } finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    // Notes the day of a weather row, the whole weather uri if the row has no location or date
+    private static void addWeatherDay(WeatherChanges changes, ContentValues values)
+    {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null)
+        {
+            changes.addAllWeather();
+        } else
+        {
+            changes.addWeatherDay(locationId, date);
+        }
+    }
+
+    // The changes of a write, shared by all operations of an applyBatch
+    private WeatherChanges startChanges(SQLiteDatabase db)
+    {
+        WeatherChanges batchChanges = mBatchChanges.get();
+        return batchChanges != null ? batchChanges : new WeatherChanges(db);
+    }
+
+    // Sends the notifications of a committed write, on the narrowest uris that cover it. Inside
+    // an applyBatch they wait for the batch to commit.
+    private void notifyChanges(WeatherChanges changes)
+    {
+        if (changes != mBatchChanges.get())
+        {
+            dispatch(changes);
+        }
+    }
+
+    private void dispatch(WeatherChanges changes)
+    {
+        for (Uri uri : changes.getUris())
+        {
+            notifyChange(uri);
+        }
+    }
+
+    // Every notification goes through here, so the cached results it covers are dropped before
+    // any observer queries again
+    private void notifyChange(Uri uri)
+    {
+        mQueryCache.invalidate(uri);
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Applies the operations in one transaction: either all of them are written or, if one
+     * fails, none is. Back-references work as usual, insert on
+     * {@link WeatherContract.LocationEntry#buildLocationGetOrCreateUri()} gives the _ID of a
+     * location whether or not it was already stored. Observers are notified once the batch is
+     * committed, once per changed uri.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException
+    {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherChanges changes = new WeatherChanges(db);
+        ContentProviderResult[] results = null;
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try
+        {
+            // the operations call insert(), update() and delete(), whose own transactions nest in this one
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally
+        {
+            WeatherUpserter upserter = mBatchUpserter.get();
+            if (upserter != null)
+            {
+                upserter.close();
+                mBatchUpserter.remove();
+            }
+            db.endTransaction();
+            mBatchChanges.remove();
+            if (results == null)
+            {
+                // rolled back, a location created by the batch may have been cached
+                LocationIdCache.clear();
+            }
+        }
+        dispatch(changes);
+        return results;
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values)
     {
@@ -332,27 +775,321 @@ public class WeatherProvider extends ContentProvider
         switch (match)
         {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri))
+                {
+                    int[] counts = upsertWeather(values);
+                    return counts[WeatherUpserter.INSERTED] + counts[WeatherUpserter.UPDATED];
+                }
                 db.beginTransaction();
                 int returnCount = 0;
+                WeatherInserter inserter = new WeatherInserter(db);
+                WeatherChanges changes = startChanges(db);
                 try
                 {
                     for (ContentValues value : values)
                     {
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = inserter.insertWeather(value);
                         if (_id != -1)
                         {
                             returnCount++;
+                            addWeatherDay(changes, value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally
                 {
+                    inserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changes);
                 return returnCount;
+            case LOCATION:
+            {
+                // a location that is already stored gets its city name and coordinates updated
+                db.beginTransaction();
+                int locationCount = 0;
+                WeatherInserter locationInserter = new WeatherInserter(db);
+                try
+                {
+                    for (ContentValues value : values)
+                    {
+                        if (locationInserter.upsertLocation(value))
+                        {
+                            locationCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally
+                {
+                    locationInserter.close();
+                    db.endTransaction();
+                }
+                if (locationCount > 0)
+                {
+                    notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                }
+                return locationCount;
+            }
+            case RESPONSE_CACHE:
+            {
+                // nobody observes the response cache, no need for a notification
+                db.beginTransaction();
+                int cacheCount = 0;
+                try
+                {
+                    for (ContentValues value : values)
+                    {
+                        if (db.insert(WeatherContract.ResponseCacheEntry.TABLE_NAME, null, value) != -1)
+                        {
+                            cacheCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally
+                {
+                    db.endTransaction();
+                }
+                return cacheCount;
+            }
+            case HOURLY:
+            {
+                // a slot already stored for the location is replaced by the unique constraint
+                db.beginTransaction();
+                int hourlyCount = 0;
+                WeatherChanges changes = startChanges(db);
+                try
+                {
+                    for (ContentValues value : values)
+                    {
+                        if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1)
+                        {
+                            hourlyCount++;
+                            Long locationId = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+                            if (locationId == null)
+                            {
+                                changes.addAllHourly();
+                            } else
+                            {
+                                changes.addHourlyLocation(locationId);
+                            }
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally
+                {
+                    db.endTransaction();
+                }
+                notifyChanges(changes);
+                return hourlyCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
-}
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras)
+    {
+        if (WeatherContract.METHOD_UPSERT_WEATHER.equals(method))
+        {
+            Parcelable[] parcelables = extras.getParcelableArray(WeatherContract.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            for (int i = 0; i < parcelables.length; i++)
+            {
+                values[i] = (ContentValues) parcelables[i];
+            }
+
+            int[] counts = upsertWeather(values);
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_INSERTED, counts[WeatherUpserter.INSERTED]);
+            result.putInt(WeatherContract.EXTRA_UPDATED, counts[WeatherUpserter.UPDATED]);
+            result.putInt(WeatherContract.EXTRA_UNCHANGED, counts[WeatherUpserter.UNCHANGED]);
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_OR_CREATE_LOCATION.equals(method))
+        {
+            ContentValues values = extras.getParcelable(WeatherContract.EXTRA_VALUES);
+            WeatherChanges changes = startChanges(mOpenHelper.getWritableDatabase());
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.EXTRA_LOCATION_ID, getOrCreateLocation(values, changes));
+            notifyChanges(changes);
+            return result;
+        }
+        if (WeatherContract.METHOD_COMPACT.equals(method))
+        {
+            return compact(extras != null ? extras : Bundle.EMPTY);
+        }
+        if (WeatherContract.METHOD_QUERY_CACHE_STATS.equals(method))
+        {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_CACHE_HITS, mQueryCache.getHits());
+            result.putInt(WeatherContract.EXTRA_CACHE_MISSES, mQueryCache.getMisses());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    // Looks the location up and inserts it if it's missing, in one transaction so two syncs of
+    // a new location can't both insert it. Cached ids are returned without touching the db.
+    private long getOrCreateLocation(ContentValues values, WeatherChanges changes)
+    {
+        String locationSetting = values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        Long cachedId = LocationIdCache.get(locationSetting);
+        if (cachedId != null)
+        {
+            return cachedId;
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long id = -1;
+        boolean inserted = false;
+        db.beginTransaction();
+        try
+        {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting}, null, null, null);
+            try
+            {
+                if (cursor.moveToFirst())
+                {
+                    id = cursor.getLong(0);
+                }
+            } finally
+            {
+                cursor.close();
+            }
+            if (id == -1)
+            {
+                id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                if (id == -1)
+                {
+                    throw new android.database.SQLException("Failed to insert location " + locationSetting);
+                }
+                inserted = true;
+            }
+            db.setTransactionSuccessful();
+        } finally
+        {
+            db.endTransaction();
+        }
+
+        LocationIdCache.put(locationSetting, id);
+        if (inserted)
+        {
+            changes.addUri(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return id;
+    }
+
+    private Bundle compact(Bundle extras)
+    {
+        WeatherRetention retention = new WeatherRetention(mOpenHelper.getWritableDatabase());
+        retention.run(WeatherContract.getDbDay(System.currentTimeMillis()),
+                extras.getInt(WeatherContract.EXTRA_HISTORY_DAYS, WeatherContract.DEFAULT_HISTORY_DAYS),
+                extras.getInt(WeatherContract.EXTRA_MAX_DAYS_PER_LOCATION,
+                        WeatherContract.DEFAULT_MAX_DAYS_PER_LOCATION));
+        if (retention.deletedRows > 0)
+        {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_DELETED_ROWS, retention.deletedRows);
+        result.putLong(WeatherContract.EXTRA_RECLAIMED_BYTES, retention.reclaimedBytes);
+        return result;
+    }
+
+    // Upserts the rows in one transaction, see WeatherUpserter. Observers are only notified if
+    // something was actually written.
+    private int[] upsertWeather(ContentValues[] values)
+    {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        WeatherChanges changes = startChanges(db);
+        WeatherUpserter upserter = new WeatherUpserter(db, changes);
+        try
+        {
+            upserter.prepare(values);
+            for (ContentValues value : values)
+            {
+                upserter.upsert(value);
+            }
+            db.setTransactionSuccessful();
+        } finally
+        {
+            upserter.close();
+            db.endTransaction();
+        }
+
+        notifyChanges(changes);
+        return upserter.getCounts();
+    }
+
+    // Upserts a single row, for insert() on the upsert uri. The row has to say its location and
+    // date, the returned uri is the one of the stored row and tells what was done to it. In a
+    // batch all the rows share the batch's upserter, so the stored rows of a location are read
+    // once and the insert statement is compiled once for the whole batch.
+    private Uri upsertWeatherRow(SQLiteDatabase db, ContentValues values)
+    {
+        if (values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY) == null
+                || values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) == null)
+        {
+            throw new IllegalArgumentException("An upserted weather row needs a location and a date: " + values);
+        }
+        int result;
+        long _id;
+        WeatherChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null)
+        {
+            WeatherUpserter upserter = mBatchUpserter.get();
+            if (upserter == null)
+            {
+                upserter = new WeatherUpserter(db, batchChanges);
+                mBatchUpserter.set(upserter);
+            }
+            result = upserter.upsert(values);
+            _id = upserter.getLastId();
+        } else
+        {
+            db.beginTransaction();
+            WeatherChanges changes = startChanges(db);
+            WeatherUpserter upserter = new WeatherUpserter(db, changes);
+            try
+            {
+                result = upserter.upsert(values);
+                _id = upserter.getLastId();
+                db.setTransactionSuccessful();
+            } finally
+            {
+                upserter.close();
+                db.endTransaction();
+            }
+            notifyChanges(changes);
+        }
+
+        switch (result)
+        {
+            case WeatherUpserter.INSERTED:
+                return WeatherContract.WeatherEntry.buildWeatherUpsertResultUri(_id, WeatherContract.EXTRA_INSERTED);
+            case WeatherUpserter.UPDATED:
+                return WeatherContract.WeatherEntry.buildWeatherUpsertResultUri(_id, WeatherContract.EXTRA_UPDATED);
+            case WeatherUpserter.UNCHANGED:
+                return WeatherContract.WeatherEntry.buildWeatherUpsertResultUri(_id, WeatherContract.EXTRA_UNCHANGED);
+            default:
+                throw new android.database.SQLException("Failed to upsert row " + values);
+        }
+    }
+
+    // The rows the batch's upserter read may have changed under it
+    private void forgetBatchUpserts()
+    {
+        WeatherUpserter upserter = mBatchUpserter.get();
+        if (upserter != null)
+        {
+            upserter.reset();
+        }
+    }
+}
\ No newline at end of file
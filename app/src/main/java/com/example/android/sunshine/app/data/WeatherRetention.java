@@ -0,0 +1,158 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Removes old forecasts and compacts the database file, see {@link WeatherContract#METHOD_COMPACT}.
+ * <p/>
+ * Rows are deleted in batches of {@link #DELETE_BATCH_ROWS}, each in its own short transaction,
+ * so a sync or a loader never waits long for the database. The database is switched to
+ * incremental auto vacuum the first time this runs; after that the pages freed by the deletes
+ * are given back {@link #VACUUM_BATCH_PAGES} at a time, once there are enough of them.
+ */
+final class WeatherRetention
+{
+    private static final String LOG_TAG = WeatherRetention.class.getSimpleName();
+
+    private static final int DELETE_BATCH_ROWS = 500;
+    // Not worth a vacuum below this many free pages
+    private static final int MIN_FREE_PAGES = 64;
+    private static final int VACUUM_BATCH_PAGES = 1024;
+    // PRAGMA auto_vacuum value
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final SQLiteDatabase mDb;
+
+    int deletedRows;
+    long reclaimedBytes;
+
+    WeatherRetention(SQLiteDatabase db)
+    {
+        mDb = db;
+    }
+
+    /**
+     * Applies the retention policy and compacts the file. Must not be called in a transaction.
+     *
+     * @param today            day number of today, see {@link WeatherContract#getDbDay}
+     * @param historyDays      days before today to keep
+     * @param maxDaysPerLocation most days kept per location, the newest ones
+     */
+    void run(long today, int historyDays, int maxDaysPerLocation)
+    {
+        long pagesBefore = getPageCount();
+        long firstKeptDay = today - historyDays;
+        // hourly slots are keyed by epoch second, UTC midnight is close enough here
+        String firstKeptTime = Long.toString(firstKeptDay * WeatherContract.DAY_MILLIS / 1000);
+
+        // by the unique (date, location_id) index
+        deletedRows += deleteInBatches(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(firstKeptDay)}, null, 0);
+
+        for (long locationId : getLocationIds())
+        {
+            String[] location = new String[]{Long.toString(locationId)};
+            // all but the newest maxDaysPerLocation days, by the location/date index
+            deletedRows += deleteInBatches(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    location, WeatherEntry.COLUMN_DATE + " DESC", maxDaysPerLocation);
+            deletedRows += deleteInBatches(HourlyEntry.TABLE_NAME,
+                    HourlyEntry.COLUMN_LOC_KEY + " = ? AND " + HourlyEntry.COLUMN_TIME + " < ?",
+                    new String[]{Long.toString(locationId), firstKeptTime}, null, 0);
+        }
+
+        vacuum();
+        reclaimedBytes = Math.max(0, pagesBefore - getPageCount()) * getPageSize();
+        Log.v(LOG_TAG, "Deleted " + deletedRows + " rows, reclaimed " + reclaimedBytes + " bytes");
+    }
+
+    // Deletes the rows matching the selection, DELETE_BATCH_ROWS per transaction. With an
+    // orderBy, the first keepFirst rows in that order are kept.
+    private int deleteInBatches(String table, String selection, String[] selectionArgs,
+                                String orderBy, int keepFirst)
+    {
+        String batch = "SELECT _id FROM " + table + " WHERE " + selection +
+                (orderBy != null ? " ORDER BY " + orderBy : "") +
+                " LIMIT " + DELETE_BATCH_ROWS +
+                (keepFirst > 0 ? " OFFSET " + keepFirst : "");
+        int deleted = 0;
+        while (true)
+        {
+            int count;
+            mDb.beginTransaction();
+            try
+            {
+                count = mDb.delete(table, "_id IN (" + batch + ")", selectionArgs);
+                mDb.setTransactionSuccessful();
+            } finally
+            {
+                mDb.endTransaction();
+            }
+            deleted += count;
+            if (count < DELETE_BATCH_ROWS)
+            {
+                return deleted;
+            }
+        }
+    }
+
+    private long[] getLocationIds()
+    {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        try
+        {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++)
+            {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    private void vacuum()
+    {
+        if (DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL)
+        {
+            // only takes effect with a full VACUUM, which also compacts the file this once
+            mDb.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            mDb.execSQL("VACUUM");
+            return;
+        }
+        if (DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null) >= MIN_FREE_PAGES)
+        {
+            // a pragma that may return rows, so it is run as a query and read to the end
+            Cursor cursor = mDb.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_BATCH_PAGES + ")", null);
+            try
+            {
+                while (cursor.moveToNext())
+                {
+                    // stepping frees the pages
+                }
+            } finally
+            {
+                cursor.close();
+            }
+        }
+    }
+
+    private long getPageCount()
+    {
+        return DatabaseUtils.longForQuery(mDb, "PRAGMA page_count", null);
+    }
+
+    private long getPageSize()
+    {
+        return DatabaseUtils.longForQuery(mDb, "PRAGMA page_size", null);
+    }
+}
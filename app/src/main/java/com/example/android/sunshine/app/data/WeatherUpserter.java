@@ -0,0 +1,253 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes weather rows without going through the ON CONFLICT REPLACE of the weather table: a row
+ * for a (location, date) that is already stored is compared column by column and only the
+ * columns that differ are updated in place, so _ID stays the same and unchanged rows aren't
+ * written at all.
+ * <p/>
+ * One upserter lasts for a whole write, whether the rows come as one array (bulkInsert on the
+ * upsert uri, METHOD_UPSERT_WEATHER) or one at a time as the operations of a batch: the stored
+ * rows of a location are read with one range query the first time a row of it comes up, and
+ * every insert goes through the same compiled statement.
+ * <p/>
+ * Only use it inside the caller's transaction, and {@link #close()} it before that ends.
+ */
+final class WeatherUpserter
+{
+    // What upsert() did with a row, also the indices of getCounts()
+    static final int INSERTED = 0;
+    static final int UPDATED = 1;
+    static final int UNCHANGED = 2;
+    static final int REJECTED = -1;
+
+    private final SQLiteDatabase mDb;
+    private final WeatherInserter mInserter;
+    private final WeatherChanges mChanges;
+    // location id -> (date -> stored row), for the dates read so far
+    private final Map<Long, Map<Long, ContentValues>> mStoredRows = new HashMap<Long, Map<Long, ContentValues>>();
+    // location id -> first and last date read for it
+    private final Map<Long, long[]> mReadRanges = new HashMap<Long, long[]>();
+    private final int[] mCounts = new int[3];
+    private long mLastId = -1;
+
+    WeatherUpserter(SQLiteDatabase db, WeatherChanges changes)
+    {
+        mDb = db;
+        mInserter = new WeatherInserter(db);
+        mChanges = changes;
+    }
+
+    /**
+     * Reads the stored rows of every location in the date range values cover for it, one query
+     * per location, ahead of upserting them.
+     */
+    void prepare(ContentValues[] values)
+    {
+        Map<Long, long[]> ranges = new HashMap<Long, long[]>();
+        for (ContentValues value : values)
+        {
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null || mReadRanges.containsKey(locationId))
+            {
+                continue;
+            }
+            long[] range = ranges.get(locationId);
+            if (range == null)
+            {
+                ranges.put(locationId, new long[]{date, date});
+            } else
+            {
+                range[0] = Math.min(range[0], date);
+                range[1] = Math.max(range[1], date);
+            }
+        }
+        for (Map.Entry<Long, long[]> entry : ranges.entrySet())
+        {
+            long[] range = entry.getValue();
+            readStoredRows(entry.getKey(), range[0], range[1]);
+            mReadRanges.put(entry.getKey(), range);
+        }
+    }
+
+    /**
+     * Upserts a row, {@link #getLastId()} is its _ID afterwards.
+     *
+     * @return INSERTED, UPDATED, UNCHANGED, or REJECTED if the row breaks a constraint
+     */
+    int upsert(ContentValues value)
+    {
+        Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null)
+        {
+            // can't be matched to a stored row, let the insert constraints reject it
+            mLastId = mInserter.insertWeather(value);
+            if (mLastId == -1)
+            {
+                return REJECTED;
+            }
+            mChanges.addAllWeather();
+            mCounts[INSERTED]++;
+            return INSERTED;
+        }
+
+        Map<Long, ContentValues> storedRows = getStoredRows(locationId, date);
+        ContentValues storedRow = storedRows.get(date);
+        if (storedRow == null)
+        {
+            mLastId = mInserter.insertWeather(value);
+            if (mLastId == -1)
+            {
+                return REJECTED;
+            }
+            mChanges.addWeatherDay(locationId, date);
+            // so a second row for the same day is diffed against it
+            storedRow = new ContentValues(value);
+            storedRow.put(WeatherEntry._ID, mLastId);
+            storedRows.put(date, storedRow);
+            mCounts[INSERTED]++;
+            return INSERTED;
+        }
+
+        mLastId = storedRow.getAsLong(WeatherEntry._ID);
+        ContentValues changedValues = getChangedValues(storedRow, value);
+        if (changedValues.size() == 0)
+        {
+            mCounts[UNCHANGED]++;
+            return UNCHANGED;
+        }
+        mDb.update(WeatherEntry.TABLE_NAME, changedValues,
+                WeatherEntry._ID + " = ?", new String[]{Long.toString(mLastId)});
+        storedRow.putAll(changedValues);
+        mChanges.addWeatherDay(locationId, date);
+        mCounts[UPDATED]++;
+        return UPDATED;
+    }
+
+    long getLastId()
+    {
+        return mLastId;
+    }
+
+    // The rows inserted, updated and left unchanged so far, by INSERTED, UPDATED and UNCHANGED
+    int[] getCounts()
+    {
+        return mCounts;
+    }
+
+    /**
+     * Forgets the stored rows read so far, after the weather table was written some other way.
+     */
+    void reset()
+    {
+        mStoredRows.clear();
+        mReadRanges.clear();
+    }
+
+    void close()
+    {
+        mInserter.close();
+    }
+
+    // The stored rows of a location, read first if the date isn't covered yet. Forecasts come in
+    // date order, so reading from the first date on normally covers all of a location at once.
+    private Map<Long, ContentValues> getStoredRows(long locationId, long date)
+    {
+        long[] range = mReadRanges.get(locationId);
+        if (range == null)
+        {
+            readStoredRows(locationId, date, Long.MAX_VALUE);
+            mReadRanges.put(locationId, new long[]{date, Long.MAX_VALUE});
+        } else if (date < range[0])
+        {
+            readStoredRows(locationId, date, range[0] - 1);
+            range[0] = date;
+        } else if (date > range[1])
+        {
+            readStoredRows(locationId, range[1] + 1, Long.MAX_VALUE);
+            range[1] = Long.MAX_VALUE;
+        }
+        return mStoredRows.get(locationId);
+    }
+
+    private void readStoredRows(long locationId, long minDate, long maxDate)
+    {
+        Map<Long, ContentValues> storedRows = mStoredRows.get(locationId);
+        if (storedRows == null)
+        {
+            storedRows = new HashMap<Long, ContentValues>();
+            mStoredRows.put(locationId, storedRows);
+        }
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                        WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(locationId), Long.toString(minDate), Long.toString(maxDate)},
+                null,
+                null,
+                null);
+        try
+        {
+            int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            while (cursor.moveToNext())
+            {
+                ContentValues storedRow = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, storedRow);
+                storedRows.put(cursor.getLong(dateIndex), storedRow);
+            }
+        } finally
+        {
+            cursor.close();
+        }
+    }
+
+    // Returns the columns of newValues that differ from the stored row, keeping their types
+    private static ContentValues getChangedValues(ContentValues storedRow, ContentValues newValues)
+    {
+        ContentValues changedValues = new ContentValues(newValues);
+        changedValues.remove(WeatherEntry._ID);
+        for (Map.Entry<String, Object> entry : newValues.valueSet())
+        {
+            String column = entry.getKey();
+            if (isSameValue(entry.getValue(), storedRow.get(column)))
+            {
+                changedValues.remove(column);
+            }
+        }
+        return changedValues;
+    }
+
+    // Stored rows come back from cursorRowToContentValues as strings, so numbers are compared
+    // numerically ("75" vs "75.0" for a REAL column is the same value).
+    private static boolean isSameValue(Object newValue, Object storedValue)
+    {
+        if (newValue == null || storedValue == null)
+        {
+            return newValue == storedValue;
+        }
+        if (newValue instanceof Number)
+        {
+            try
+            {
+                return ((Number) newValue).doubleValue() == Double.parseDouble(storedValue.toString());
+            } catch (NumberFormatException e)
+            {
+                return false;
+            }
+        }
+        return newValue.toString().equals(storedValue.toString());
+    }
+}